@@ -0,0 +1,441 @@
+package edu.utexas.cs.cs378;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * Writes the per-driver aggregates as an Arrow IPC file (a.k.a. Feather v2),
+ * without depending on the Arrow libraries. The tests read the files back
+ * with Arrow's own Java reader. The columns are:
+ *
+ *   id                string   hack license
+ *   trips             int32
+ *   taxis             int32    distinct medallions
+ *   revenue           float32  total amount
+ *   seconds           int64    time spent driving
+ *   money_per_minute  float32
+ *
+ * Drivers are buffered into chunks of 'chunkRows' rows, each written as a
+ * record batch as soon as it's full, so memory use doesn't depend on the
+ * number of drivers. Every batch carries statistics of its chunk (rows, and
+ * the min & max of each numeric column) as custom metadata, e.g.
+ * "stats.revenue.max", and the footer carries the totals.
+ *
+ * The file is written next to the target and moved into place when closed,
+ * so a failed job leaves any earlier export untouched.
+ */
+public class ArrowDriverWriter implements Closeable {
+
+    public static final int DEFAULT_CHUNK_ROWS = 65536;
+
+    private static final byte[] MAGIC = "ARROW1".getBytes(StandardCharsets.US_ASCII);
+    private static final short METADATA_V5 = 4;
+    private static final byte HEADER_SCHEMA = 1;
+    private static final byte HEADER_RECORD_BATCH = 3;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_FLOATING_POINT = 3;
+    private static final byte TYPE_UTF8 = 5;
+    private static final short PRECISION_SINGLE = 1;
+
+    private static final String[] NUMERIC_COLUMNS = { "trips", "taxis", "revenue", "seconds", "money_per_minute" };
+
+    private final Path target;
+    private final Path temp;
+    private final OutputStream out;
+    private final int chunkRows;
+    private long position = 0;
+
+    // the current chunk, column by column.
+    private int rows = 0;
+    private byte[] ids;
+    private int[] idOffsets;
+    private int[] trips;
+    private int[] taxis;
+    private float[] revenue;
+    private long[] seconds;
+    private float[] moneyPerMinute;
+
+    // the record batches written so far: offset, metadata & body length.
+    private final ArrayList<long[]> blocks = new ArrayList<>();
+    private long totalRows = 0;
+    private double totalRevenue = 0;
+
+    public ArrowDriverWriter(String fileName, int chunkRows)
+        throws IOException {
+
+        if (chunkRows <= 0)
+            throw new IllegalArgumentException("chunks need at least 1 row, not " + chunkRows);
+
+        this.chunkRows = chunkRows;
+        target = Paths.get(fileName).toAbsolutePath();
+        temp = target.resolveSibling(target.getFileName() + ".tmp");
+        out = new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16);
+
+        ids = new byte[chunkRows * 32];
+        idOffsets = new int[chunkRows + 1];
+        trips = new int[chunkRows];
+        taxis = new int[chunkRows];
+        revenue = new float[chunkRows];
+        seconds = new long[chunkRows];
+        moneyPerMinute = new float[chunkRows];
+
+        // magic, padded to 8 bytes, then the schema.
+        write(MAGIC);
+        write(new byte[2]);
+        writeMessage(schemaMessage(), null);
+    }
+
+    /*
+     * Appends a driver, writing out the chunk once it's full.
+     */
+    public void write(Driver driver)
+        throws IOException {
+
+        byte[] id = driver.getId().getBytes(StandardCharsets.UTF_8);
+        int start = idOffsets[rows];
+        if (start + id.length > ids.length)
+            ids = Arrays.copyOf(ids, Math.max(ids.length * 2, start + id.length));
+        System.arraycopy(id, 0, ids, start, id.length);
+        idOffsets[rows + 1] = start + id.length;
+
+        trips[rows] = driver.getNumTrips();
+        taxis[rows] = driver.getNumTaxis();
+        revenue[rows] = driver.getTotalAmount();
+        seconds[rows] = driver.getTimeSpentDriving();
+        moneyPerMinute[rows] = driver.getMoneyPerMinute();
+        totalRevenue += driver.getTotalAmount();
+
+        if (++rows == chunkRows)
+            flushChunk();
+    }
+
+    public long getRowCount() {
+        return totalRows + rows;
+    }
+
+    public long getChunkCount() {
+        return blocks.size() + (rows > 0 ? 1 : 0);
+    }
+
+    public double getTotalRevenue() {
+        return totalRevenue;
+    }
+
+    /*
+     * Writes the last chunk, the end of stream marker and the footer.
+     */
+    @Override
+    public void close()
+        throws IOException {
+
+        if (rows > 0)
+            flushChunk();
+
+        // end of stream
+        writeInt(0xFFFFFFFF);
+        writeInt(0);
+
+        byte[] footer = footer();
+        write(footer);
+        writeInt(footer.length);
+        write(MAGIC);
+        out.close();
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Discards the file, e.g. when the job fails before every driver was
+     * written, so that no partial export is left behind.
+     */
+    public void abort()
+        throws IOException {
+
+        out.close();
+        Files.deleteIfExists(temp);
+    }
+
+    private void flushChunk()
+        throws IOException {
+
+        // the body: every column's buffers, each padded to 8 bytes. The
+        // columns have no nulls, so their validity buffers are empty.
+        ByteBuffer body = ByteBuffer.allocate(bodyLength()).order(ByteOrder.LITTLE_ENDIAN);
+        ArrayList<long[]> buffers = new ArrayList<>();
+
+        buffers.add(new long[] { body.position(), 0 });
+        addBuffer(body, buffers, () -> { for (int i = 0; i <= rows; i++) body.putInt(idOffsets[i]); });
+        addBuffer(body, buffers, () -> body.put(ids, 0, idOffsets[rows]));
+
+        buffers.add(new long[] { body.position(), 0 });
+        addBuffer(body, buffers, () -> { for (int i = 0; i < rows; i++) body.putInt(trips[i]); });
+        buffers.add(new long[] { body.position(), 0 });
+        addBuffer(body, buffers, () -> { for (int i = 0; i < rows; i++) body.putInt(taxis[i]); });
+        buffers.add(new long[] { body.position(), 0 });
+        addBuffer(body, buffers, () -> { for (int i = 0; i < rows; i++) body.putFloat(revenue[i]); });
+        buffers.add(new long[] { body.position(), 0 });
+        addBuffer(body, buffers, () -> { for (int i = 0; i < rows; i++) body.putLong(seconds[i]); });
+        buffers.add(new long[] { body.position(), 0 });
+        addBuffer(body, buffers, () -> { for (int i = 0; i < rows; i++) body.putFloat(moneyPerMinute[i]); });
+
+        long offset = position;
+        long metadataLength = writeMessage(recordBatchMessage(buffers, body.capacity()), body.array());
+        blocks.add(new long[] { offset, metadataLength, body.capacity() });
+
+        totalRows += rows;
+        rows = 0;
+    }
+
+    private int bodyLength() {
+        return pad(4 * (rows + 1)) + pad(idOffsets[rows]) + 3 * pad(4 * rows) + pad(8 * rows) + pad(4 * rows);
+    }
+
+    private static void addBuffer(ByteBuffer body, ArrayList<long[]> buffers, Runnable writer) {
+
+        int start = body.position();
+        writer.run();
+        buffers.add(new long[] { start, body.position() - start });
+        body.position(pad(body.position()));
+    }
+
+    /*
+     * The statistics of the current chunk, as custom metadata.
+     */
+    private Map<String, String> chunkStatistics() {
+
+        Map<String, String> stats = new LinkedHashMap<>();
+        stats.put("stats.rows", String.valueOf(rows));
+
+        double[][] columns = new double[NUMERIC_COLUMNS.length][rows];
+        for (int i = 0; i < rows; i++) {
+            columns[0][i] = trips[i];
+            columns[1][i] = taxis[i];
+            columns[2][i] = revenue[i];
+            columns[3][i] = seconds[i];
+            columns[4][i] = moneyPerMinute[i];
+        }
+
+        for (int column = 0; column < NUMERIC_COLUMNS.length; column++) {
+
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double value : columns[column]) {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            stats.put("stats." + NUMERIC_COLUMNS[column] + ".min", format(column, min));
+            stats.put("stats." + NUMERIC_COLUMNS[column] + ".max", format(column, max));
+        }
+        return stats;
+    }
+
+    private static String format(int column, double value) {
+
+        // the integer columns are written as integers.
+        if (column == 0 || column == 1 || column == 3)
+            return String.valueOf((long) value);
+        return String.format(Locale.ROOT, "%s", (float) value);
+    }
+
+    /*
+     * Writes an encapsulated IPC message: a continuation marker, the length
+     * of the metadata, the metadata padded to 8 bytes, then the body.
+     * Returns the length of everything before the body.
+     */
+    private long writeMessage(byte[] metadata, byte[] body)
+        throws IOException {
+
+        int paddedLength = pad(8 + metadata.length) - 8;
+        writeInt(0xFFFFFFFF);
+        writeInt(paddedLength);
+        write(metadata);
+        write(new byte[paddedLength - metadata.length]);
+        if (body != null)
+            write(body);
+        return 8 + paddedLength;
+    }
+
+    private byte[] schemaMessage() {
+
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        int schema = schema(builder);
+        return builder.finish(message(builder, HEADER_SCHEMA, schema, 0, null));
+    }
+
+    private byte[] recordBatchMessage(ArrayList<long[]> buffers, long bodyLength) {
+
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        int metadata = keyValues(builder, chunkStatistics());
+
+        // field nodes: one per column, of (length, null count)
+        builder.startVector(16, NUMERIC_COLUMNS.length + 1, 8);
+        for (int i = 0; i <= NUMERIC_COLUMNS.length; i++) {
+            builder.putLong(0);
+            builder.putLong(rows);
+        }
+        int nodes = builder.endVector(NUMERIC_COLUMNS.length + 1);
+
+        // buffers: (offset, length) within the body
+        builder.startVector(16, buffers.size(), 8);
+        for (int i = buffers.size() - 1; i >= 0; i--) {
+            builder.putLong(buffers.get(i)[1]);
+            builder.putLong(buffers.get(i)[0]);
+        }
+        int bufferVector = builder.endVector(buffers.size());
+
+        builder.startTable(5);
+        builder.addLong(0, rows);
+        builder.addOffset(1, nodes);
+        builder.addOffset(2, bufferVector);
+        int recordBatch = builder.endTable();
+
+        return builder.finish(message(builder, HEADER_RECORD_BATCH, recordBatch, bodyLength, metadata));
+    }
+
+    private static int message(FlatBufferBuilder builder, byte headerType, int header, long bodyLength,
+        Integer metadata) {
+
+        builder.startTable(5);
+        builder.addLong(3, bodyLength);
+        if (metadata != null)
+            builder.addOffset(4, metadata);
+        builder.addOffset(2, header);
+        builder.addShort(0, METADATA_V5);
+        builder.addByte(1, headerType);
+        return builder.endTable();
+    }
+
+    private static int schema(FlatBufferBuilder builder) {
+
+        int[] fields = {
+            field(builder, "id", TYPE_UTF8, emptyTable(builder)),
+            field(builder, "trips", TYPE_INT, intType(builder, 32)),
+            field(builder, "taxis", TYPE_INT, intType(builder, 32)),
+            field(builder, "revenue", TYPE_FLOATING_POINT, floatType(builder)),
+            field(builder, "seconds", TYPE_INT, intType(builder, 64)),
+            field(builder, "money_per_minute", TYPE_FLOATING_POINT, floatType(builder)),
+        };
+        int fieldVector = builder.createOffsetVector(fields);
+
+        builder.startTable(4);
+        builder.addOffset(1, fieldVector);
+        builder.addShort(0, (short) 0);
+        return builder.endTable();
+    }
+
+    private static int field(FlatBufferBuilder builder, String name, byte typeType, int type) {
+
+        int nameOffset = builder.createString(name);
+        int children = builder.createOffsetVector(new int[0]);
+
+        builder.startTable(7);
+        builder.addOffset(0, nameOffset);
+        builder.addOffset(3, type);
+        builder.addOffset(5, children);
+        builder.addBoolean(1, false);
+        builder.addByte(2, typeType);
+        return builder.endTable();
+    }
+
+    private static int intType(FlatBufferBuilder builder, int bitWidth) {
+
+        builder.startTable(2);
+        builder.addInt(0, bitWidth);
+        builder.addBoolean(1, true);
+        return builder.endTable();
+    }
+
+    private static int floatType(FlatBufferBuilder builder) {
+
+        builder.startTable(1);
+        builder.addShort(0, PRECISION_SINGLE);
+        return builder.endTable();
+    }
+
+    private static int emptyTable(FlatBufferBuilder builder) {
+        builder.startTable(0);
+        return builder.endTable();
+    }
+
+    private static int keyValues(FlatBufferBuilder builder, Map<String, String> values) {
+
+        int[] pairs = new int[values.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+
+            int key = builder.createString(entry.getKey());
+            int value = builder.createString(entry.getValue());
+            builder.startTable(2);
+            builder.addOffset(0, key);
+            builder.addOffset(1, value);
+            pairs[i++] = builder.endTable();
+        }
+        return builder.createOffsetVector(pairs);
+    }
+
+    /*
+     * The footer: the schema again, and where each record batch is.
+     */
+    private byte[] footer() {
+
+        FlatBufferBuilder builder = new FlatBufferBuilder(1024);
+        int schema = schema(builder);
+
+        Map<String, String> totals = new LinkedHashMap<>();
+        totals.put("stats.rows", String.valueOf(totalRows));
+        totals.put("stats.chunks", String.valueOf(blocks.size()));
+        totals.put("stats.revenue.sum", String.format(Locale.ROOT, "%.2f", totalRevenue));
+        int metadata = keyValues(builder, totals);
+
+        // blocks: (offset, metadata length, padding, body length)
+        builder.startVector(24, 0, 8);
+        int dictionaries = builder.endVector(0);
+        builder.startVector(24, blocks.size(), 8);
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            long[] block = blocks.get(i);
+            builder.prep(8, 24);
+            builder.putLong(block[2]);
+            builder.putInt(0);
+            builder.putInt((int) block[1]);
+            builder.putLong(block[0]);
+        }
+        int recordBatches = builder.endVector(blocks.size());
+
+        builder.startTable(5);
+        builder.addOffset(1, schema);
+        builder.addOffset(2, dictionaries);
+        builder.addOffset(3, recordBatches);
+        builder.addOffset(4, metadata);
+        builder.addShort(0, METADATA_V5);
+        return builder.finish(builder.endTable());
+    }
+
+    private void write(byte[] bytes)
+        throws IOException {
+        out.write(bytes);
+        position += bytes.length;
+    }
+
+    private void writeInt(int value)
+        throws IOException {
+        write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(value).array());
+    }
+
+    private static int pad(int length) {
+        return (length + 7) & ~7;
+    }
+}
@@ -0,0 +1,177 @@
+package edu.utexas.cs.cs378;
+
+import java.util.PriorityQueue;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/*
+ * Per-cell aggregates of a 'SpatialGrid': trips picked up and dropped off in
+ * each cell, and the revenue and time of the trips starting in it.
+ *
+ * Every metric is a primitive array indexed by cell id. Since a partition of
+ * the grid leaves most cells empty, only the non-empty cells are sent over
+ * the wire.
+ */
+public class CellStats implements KryoSerializable {
+
+    private int numCells;
+    private long[] pickups;
+    private long[] dropoffs;
+    private double[] revenue;
+    private long[] seconds;
+
+    public CellStats() {};
+
+    public CellStats(int numCells) {
+        allocate(numCells);
+    }
+
+    private void allocate(int numCells) {
+        this.numCells = numCells;
+        this.pickups = new long[numCells];
+        this.dropoffs = new long[numCells];
+        this.revenue = new double[numCells];
+        this.seconds = new long[numCells];
+    }
+
+    public int numCells() {
+        return numCells;
+    }
+
+    /*
+     * Reports a trip between two cells. Either cell may be -1, if that end of
+     * the trip is outside of the grid.
+     *
+     * Not synchronized: each worker thread keeps its own stats.
+     */
+    public void reportTrip(int pickupCell, int dropoffCell, float amount, long tripSeconds) {
+
+        if (pickupCell >= 0) {
+            pickups[pickupCell]++;
+            revenue[pickupCell] += amount;
+            seconds[pickupCell] += tripSeconds;
+        }
+
+        if (dropoffCell >= 0)
+            dropoffs[dropoffCell]++;
+    }
+
+    /*
+     * Adds the stats of another set of cells (on the same grid) to these.
+     */
+    public void add(CellStats other) {
+
+        if (other.numCells != numCells)
+            throw new IllegalArgumentException("grids differ: " + other.numCells + " vs " + numCells + " cells");
+
+        for (int cell = 0; cell < numCells; cell++) {
+            pickups[cell] += other.pickups[cell];
+            dropoffs[cell] += other.dropoffs[cell];
+            revenue[cell] += other.revenue[cell];
+            seconds[cell] += other.seconds[cell];
+        }
+    }
+
+    /*
+     * Returns a copy of the cells owned by the given partition, with every
+     * other cell left empty.
+     */
+    public CellStats partition(int part, int parts) {
+
+        CellStats stats = new CellStats(numCells);
+        for (int cell = part; cell < numCells; cell += parts) {
+            stats.pickups[cell] = pickups[cell];
+            stats.dropoffs[cell] = dropoffs[cell];
+            stats.revenue[cell] = revenue[cell];
+            stats.seconds[cell] = seconds[cell];
+        }
+        return stats;
+    }
+
+    public long getPickups(int cell) {
+        return pickups[cell];
+    }
+
+    public long getDropoffs(int cell) {
+        return dropoffs[cell];
+    }
+
+    public double getRevenue(int cell) {
+        return revenue[cell];
+    }
+
+    /*
+     * The revenue per minute of the trips starting in the cell, i.e. how
+     * profitable it is to pick someone up there.
+     */
+    public double getMoneyPerMinute(int cell) {
+
+        if (seconds[cell] == 0)
+            return 0;
+        return revenue[cell] / (seconds[cell] / 60.0);
+    }
+
+    /*
+     * Returns the top k cells by revenue, best first.
+     */
+    public int[] topCells(int k) {
+
+        PriorityQueue<Integer> heap = new PriorityQueue<>((a, b) -> Double.compare(revenue[a], revenue[b]));
+        for (int cell = 0; cell < numCells; cell++) {
+
+            if (pickups[cell] == 0)
+                continue;
+
+            heap.add(cell);
+            if (heap.size() > k)
+                heap.poll();
+        }
+
+        int[] top = new int[heap.size()];
+        for (int i = top.length - 1; i >= 0; i--)
+            top[i] = heap.poll();
+        return top;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output) {
+
+        int nonEmpty = 0;
+        for (int cell = 0; cell < numCells; cell++) {
+            if (pickups[cell] != 0 || dropoffs[cell] != 0)
+                nonEmpty++;
+        }
+
+        output.writeVarInt(numCells, true);
+        output.writeVarInt(nonEmpty, true);
+        for (int cell = 0; cell < numCells; cell++) {
+
+            if (pickups[cell] == 0 && dropoffs[cell] == 0)
+                continue;
+
+            output.writeVarInt(cell, true);
+            output.writeVarLong(pickups[cell], true);
+            output.writeVarLong(dropoffs[cell], true);
+            output.writeDouble(revenue[cell]);
+            output.writeVarLong(seconds[cell], true);
+        }
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+
+        allocate(input.readVarInt(true));
+        int nonEmpty = input.readVarInt(true);
+        for (int i = 0; i < nonEmpty; i++) {
+
+            int cell = input.readVarInt(true);
+            pickups[cell] = input.readVarLong(true);
+            dropoffs[cell] = input.readVarLong(true);
+            revenue[cell] = input.readDouble();
+            seconds[cell] = input.readVarLong(true);
+        }
+    }
+}
@@ -11,21 +11,40 @@ import java.util.HashSet;
 public class Driver implements Comparable<Driver> {
 
 	private String id;
+	private int tripCount;
 	private int taxiCount;
 	private float totalAmount;
     private HashSet<String> taxiIds;
     private long timeSpentDriving;
 
+    // set when this is only part of the driver's trips, e.g. a hot driver
+    // split across reducers, which must be combined before it can be ranked.
+    private boolean partial;
+
     public Driver() {};
 
 	public Driver(String id) {
 		this.id = id;
+		this.tripCount = 0;
 		this.taxiCount = 0;
         this.taxiIds = new HashSet<String>();
         this.totalAmount = 0;
         this.timeSpentDriving = 0;
 	}
 
+	/*
+	 * Restores a driver from previously aggregated values, e.g. from a
+	 * snapshot on disk.
+	 */
+	public Driver(String id, int tripCount, float totalAmount, long timeSpentDriving, HashSet<String> taxiIds) {
+		this.id = id;
+		this.tripCount = tripCount;
+		this.taxiIds = taxiIds;
+		this.taxiCount = taxiIds.size();
+		this.totalAmount = totalAmount;
+		this.timeSpentDriving = timeSpentDriving;
+	}
+
 	public String getId() {
 		return id;
 	}
@@ -34,10 +53,18 @@ public class Driver implements Comparable<Driver> {
 		this.id = id;
 	}
 
+	public int getNumTrips() {
+		return tripCount;
+	}
+
 	public int getNumTaxis() {
 		return taxiCount;
 	}
 
+	public HashSet<String> getTaxiIds() {
+		return taxiIds;
+	}
+
 	public float getTotalAmount() {
 		return totalAmount;
 	}
@@ -55,10 +82,18 @@ public class Driver implements Comparable<Driver> {
 		return totalAmount / minutesSpentDriving;
 	}
 
-    public float getTimeSpentDriving() {
+    public long getTimeSpentDriving() {
 		return timeSpentDriving;
 	}
 
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
     /*
      * Reports a trip for the current driver.
      * 
@@ -72,11 +107,27 @@ public class Driver implements Comparable<Driver> {
         long tripDuration = trip.getTripDuration();
         this.timeSpentDriving += tripDuration;
         this.totalAmount += tripAmount;
+        this.tripCount++;
 
         if (this.taxiIds.add(taxiId))
             this.taxiCount = this.taxiIds.size();
     }
 
+    /*
+     * Merges another partial aggregate of the same driver into this one, e.g.
+     * the same driver seen in a different input file.
+     */
+    public synchronized void merge(Driver other) {
+
+        this.timeSpentDriving += other.timeSpentDriving;
+        this.totalAmount += other.totalAmount;
+        this.tripCount += other.tripCount;
+        this.partial |= other.partial;
+
+        if (this.taxiIds.addAll(other.taxiIds))
+            this.taxiCount = this.taxiIds.size();
+    }
+
     @Override
     public int compareTo(Driver other) {
         return Float.compare(this.getMoneyPerMinute(), other.getMoneyPerMinute());
@@ -87,7 +138,7 @@ public class Driver implements Comparable<Driver> {
      */
 	@Override
 	public String toString() {
-		return "Driver [id=" + id + ", taxis=" + taxiCount + ", totalAmount=" + totalAmount + ", moneyPerMinute=" + getMoneyPerMinute() + "]";
+		return "Driver [id=" + id + ", trips=" + tripCount + ", taxis=" + taxiCount + ", totalAmount=" + totalAmount + ", moneyPerMinute=" + getMoneyPerMinute() + "]";
 	}
 
 }
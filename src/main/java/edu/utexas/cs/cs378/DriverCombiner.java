@@ -0,0 +1,173 @@
+package edu.utexas.cs.cs378;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/*
+ * Combines partial records of the same driver, e.g. the same driver sent by
+ * several mappers, into a single driver.
+ *
+ * Records are merged into a table keyed by id. When the table holds more than
+ * 'maxDrivers' drivers, it's sorted by id and spilled to a run on disk, and
+ * once every record was added the runs are merged back together, combining
+ * the records of each driver along the way. Either way, every driver is
+ * handed out exactly once, fully combined.
+ */
+public class DriverCombiner {
+
+    private final int maxDrivers;
+    private final File spillDirectory;
+
+    private HashMap<String, Driver> table = new HashMap<>();
+    private final ArrayList<File> runs = new ArrayList<>();
+    private long recordsAdded = 0;
+    private int runsSpilled = 0;
+
+    public DriverCombiner(int maxDrivers, File spillDirectory) {
+
+        this.maxDrivers = maxDrivers;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /*
+     * Adds a partial record of a driver.
+     */
+    public synchronized void add(Driver driver)
+        throws IOException {
+
+        recordsAdded++;
+        Driver known = table.putIfAbsent(driver.getId(), driver);
+        if (known != null)
+            known.merge(driver);
+        else if (table.size() > maxDrivers)
+            spill();
+    }
+
+    public synchronized long getRecordsAdded() {
+        return recordsAdded;
+    }
+
+    /*
+     * The number of runs spilled to disk so far.
+     */
+    public synchronized int getRunCount() {
+        return runsSpilled;
+    }
+
+    /*
+     * Hands every combined driver to the consumer, in no particular order,
+     * and deletes the runs.
+     */
+    public synchronized void finish(Consumer<Driver> consumer)
+        throws IOException {
+
+        if (runs.isEmpty()) {
+            table.values().forEach(consumer);
+            table = new HashMap<>();
+            return;
+        }
+
+        spill();
+
+        // merge the runs by id, combining the records of a driver. Every run
+        // is kept in 'opened' as soon as it's open, so that all of them are
+        // closed however the merge ends.
+        PriorityQueue<Run> queue = new PriorityQueue<>((a, b) -> a.current.getId().compareTo(b.current.getId()));
+        ArrayList<Run> opened = new ArrayList<>(runs.size());
+        Kryo kryo = KryoPool.obtain();
+        try {
+            for (File file : runs) {
+                Run run = new Run(file, kryo);
+                opened.add(run);
+                if (run.advance())
+                    queue.add(run);
+            }
+
+            while (!queue.isEmpty()) {
+
+                Run run = queue.poll();
+                Driver driver = run.current;
+                if (run.advance())
+                    queue.add(run);
+
+                while (!queue.isEmpty() && queue.peek().current.getId().equals(driver.getId())) {
+                    Run same = queue.poll();
+                    driver.merge(same.current);
+                    if (same.advance())
+                        queue.add(same);
+                }
+                consumer.accept(driver);
+            }
+        }
+        finally {
+            for (Run run : opened)
+                run.close();
+            KryoPool.free(kryo);
+            for (File file : runs)
+                file.delete();
+            runs.clear();
+        }
+    }
+
+    /*
+     * Writes the table to a new run, sorted by id, and empties it.
+     */
+    private void spill()
+        throws IOException {
+
+        ArrayList<Driver> sorted = new ArrayList<>(table.values());
+        sorted.sort((a, b) -> a.getId().compareTo(b.getId()));
+        table = new HashMap<>();
+
+        File file = File.createTempFile("drivers-run-", ".kryo", spillDirectory);
+        file.deleteOnExit();
+        Kryo kryo = KryoPool.obtain();
+        try (Output output = new Output(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            for (Driver driver : sorted)
+                kryo.writeObjectOrNull(output, driver, Driver.class);
+            kryo.writeObjectOrNull(output, null, Driver.class);
+        }
+        finally {
+            KryoPool.free(kryo);
+        }
+        runs.add(file);
+        runsSpilled++;
+    }
+
+    /*
+     * A run being read back, positioned at its current driver.
+     */
+    private static class Run {
+
+        private final Input input;
+        private final Kryo kryo;
+        private Driver current;
+
+        Run(File file, Kryo kryo)
+            throws IOException {
+            input = new Input(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+            this.kryo = kryo;
+        }
+
+        boolean advance() {
+            current = kryo.readObjectOrNull(input, Driver.class);
+            return current != null;
+        }
+
+        void close() {
+            input.close();
+        }
+    }
+}
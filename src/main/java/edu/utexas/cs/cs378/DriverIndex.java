@@ -0,0 +1,241 @@
+package edu.utexas.cs.cs378;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+
+/*
+ * An immutable, indexed view of the per-driver aggregates for answering
+ * queries. Every field is kept in its own primitive array, and for every
+ * metric there's a permutation of the drivers sorted by it, so that top-k and
+ * range queries don't need to look at drivers outside of the answer.
+ */
+public class DriverIndex {
+
+    public static final String[] METRICS = { "moneyPerMinute", "totalAmount", "trips", "taxis", "seconds" };
+
+    private final int size;
+    private final String[] ids;
+    private final int[] trips;
+    private final int[] taxis;
+    private final float[] totalAmounts;
+    private final long[] seconds;
+    private final float[] moneyPerMinute;
+    private final HashMap<String, Integer> byId;
+
+    // the drivers in ascending order of each metric, in the order of METRICS.
+    private final int[][] sorted;
+
+    // the money per minute of the drivers in ascending order, for range queries.
+    private final float[] sortedMoneyPerMinute;
+
+    private DriverIndex(int size) {
+
+        this.size = size;
+        ids = new String[size];
+        trips = new int[size];
+        taxis = new int[size];
+        totalAmounts = new float[size];
+        seconds = new long[size];
+        moneyPerMinute = new float[size];
+        byId = new HashMap<>(size * 2);
+        sorted = new int[METRICS.length][];
+        sortedMoneyPerMinute = new float[size];
+    }
+
+    /*
+     * Builds an index straight from the records of a snapshot, without
+     * loading the taxi ids of every driver.
+     */
+    public static DriverIndex fromSnapshot(DriverSnapshot snapshot) {
+
+        DriverIndex index = new DriverIndex(snapshot.size());
+        for (int i = 0; i < index.size; i++) {
+            index.ids[i] = snapshot.getId(i);
+            index.trips[i] = snapshot.getNumTrips(i);
+            index.taxis[i] = snapshot.getNumTaxis(i);
+            index.totalAmounts[i] = snapshot.getTotalAmount(i);
+            index.seconds[i] = snapshot.getTimeSpentDriving(i);
+        }
+        index.build();
+        return index;
+    }
+
+    public static DriverIndex fromDrivers(Collection<Driver> drivers) {
+
+        DriverIndex index = new DriverIndex(drivers.size());
+        int i = 0;
+        for (Driver driver : drivers) {
+            index.ids[i] = driver.getId();
+            index.trips[i] = driver.getNumTrips();
+            index.taxis[i] = driver.getNumTaxis();
+            index.totalAmounts[i] = driver.getTotalAmount();
+            index.seconds[i] = driver.getTimeSpentDriving();
+            i++;
+        }
+        index.build();
+        return index;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * Returns the index of the driver with the given id, or -1.
+     */
+    public int find(String id) {
+        Integer index = byId.get(id);
+        return index == null ? -1 : index;
+    }
+
+    /*
+     * Returns the indices of the top k drivers by the given metric, best first.
+     */
+    public int[] top(String metric, int k) {
+
+        int[] order = sorted[metricIndex(metric)];
+        int count = Math.max(Math.min(k, size), 0);
+
+        int[] top = new int[count];
+        for (int i = 0; i < count; i++)
+            top[i] = order[size - 1 - i];
+        return top;
+    }
+
+    /*
+     * Returns the indices of the drivers with min <= $/min <= max, in
+     * ascending order of $/min, up to the given limit.
+     */
+    public int[] moneyPerMinuteRange(float min, float max, int limit) {
+
+        int from = lowerBound(sortedMoneyPerMinute, min);
+        int to = upperBound(sortedMoneyPerMinute, max);
+        int count = Math.max(Math.min(to - from, limit), 0);
+
+        int[] order = sorted[0];
+        int[] range = new int[count];
+        for (int i = 0; i < count; i++)
+            range[i] = order[from + i];
+        return range;
+    }
+
+    /*
+     * Counts the drivers with min <= $/min <= max.
+     */
+    public int countMoneyPerMinuteRange(float min, float max) {
+        return Math.max(upperBound(sortedMoneyPerMinute, max) - lowerBound(sortedMoneyPerMinute, min), 0);
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    public int getNumTrips(int index) {
+        return trips[index];
+    }
+
+    public int getNumTaxis(int index) {
+        return taxis[index];
+    }
+
+    public float getTotalAmount(int index) {
+        return totalAmounts[index];
+    }
+
+    public long getTimeSpentDriving(int index) {
+        return seconds[index];
+    }
+
+    public float getMoneyPerMinute(int index) {
+        return moneyPerMinute[index];
+    }
+
+    /*
+     * Derives $/min the same way 'Driver' does, and sorts by every metric.
+     */
+    private void build() {
+
+        for (int i = 0; i < size; i++) {
+            moneyPerMinute[i] = seconds[i] == 0 ? 0 : totalAmounts[i] / (seconds[i] / 60.0f);
+            byId.put(ids[i], i);
+        }
+
+        for (int metric = 0; metric < METRICS.length; metric++) {
+
+            // sort (key, index) pairs packed into longs, so no boxing is needed.
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++)
+                keys[i] = ((long) sortKey(metric, i) << 32) | i;
+            Arrays.sort(keys);
+
+            int[] order = new int[size];
+            for (int i = 0; i < size; i++)
+                order[i] = (int) keys[i];
+            sorted[metric] = order;
+        }
+
+        for (int i = 0; i < size; i++)
+            sortedMoneyPerMinute[i] = moneyPerMinute[sorted[0][i]];
+    }
+
+    /*
+     * Maps a metric of a driver onto a signed int with the same ordering.
+     */
+    private int sortKey(int metric, int i) {
+
+        switch (metric) {
+            case 0:
+                return floatKey(moneyPerMinute[i]);
+            case 1:
+                return floatKey(totalAmounts[i]);
+            case 2:
+                return trips[i];
+            case 3:
+                return taxis[i];
+            default:
+                return (int) Math.min(seconds[i], Integer.MAX_VALUE);
+        }
+    }
+
+    private static int floatKey(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    private static int metricIndex(String metric) {
+
+        int index = Arrays.asList(METRICS).indexOf(metric);
+        if (index < 0)
+            throw new IllegalArgumentException("unknown metric: " + metric);
+        return index;
+    }
+
+    private static int lowerBound(float[] values, float key) {
+
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private static int upperBound(float[] values, float key) {
+
+        int low = 0;
+        int high = values.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] <= key)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,399 @@
+package edu.utexas.cs.cs378;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/*
+ * A persistent snapshot of the per-driver aggregates of a job, along with the
+ * list of input files that went into it.
+ *
+ * The file is laid out so that it can be memory-mapped and read in place:
+ *
+ *   header    64 bytes: magic, version, counts and section offsets
+ *   drivers   one fixed size 64 byte record per driver, sorted by id
+ *   taxis     the 32 byte taxi ids of every driver, back to back
+ *   files     the paths of the input files, as UTF-8 strings, each with the
+ *             size and last modified time the file had when it was read
+ *
+ * Since the records are sorted, a single driver can be found with a binary
+ * search over the mapped file without loading the rest of it.
+ */
+public class DriverSnapshot implements Closeable {
+
+    private static final int MAGIC = 0x54584453; // "TXDS"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int RECORD_SIZE = 64;
+    private static final int ID_SIZE = 32;
+
+    // offsets of the fields within a driver record
+    private static final int TRIPS = 32;
+    private static final int TAXIS = 36;
+    private static final int AMOUNT = 40;
+    private static final int SECONDS = 48;
+    private static final int TAXI_START = 56;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int driverCount;
+    private final long taxisOffset;
+    private final List<InputFile> inputFiles;
+
+    private DriverSnapshot(FileChannel channel, MappedByteBuffer buffer)
+        throws IOException {
+
+        this.channel = channel;
+        this.buffer = buffer;
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+            throw new IOException("Not a driver snapshot (or an unsupported version)");
+
+        driverCount = buffer.getInt(8);
+        taxisOffset = buffer.getLong(24);
+
+        // the file list is small, so it's read up front.
+        long filesOffset = buffer.getLong(40);
+        int fileCount = buffer.getInt(48);
+
+        // every section has to fit in the file, e.g. if it was cut short.
+        if (driverCount < 0 || fileCount < 0 || taxisOffset < HEADER_SIZE + (long) driverCount * RECORD_SIZE
+            || filesOffset < taxisOffset + buffer.getLong(32) * ID_SIZE || filesOffset > buffer.capacity())
+            throw new IOException("Snapshot is truncated or corrupted");
+
+        inputFiles = new ArrayList<>(fileCount);
+        ByteBuffer files = buffer.duplicate();
+        files.position((int) filesOffset);
+        try {
+            for (int i = 0; i < fileCount; i++) {
+                byte[] path = new byte[files.getShort() & 0xffff];
+                files.get(path);
+                inputFiles.add(new InputFile(new String(path, StandardCharsets.UTF_8), files.getLong(), files.getLong()));
+            }
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot is truncated or corrupted");
+        }
+    }
+
+    /*
+     * Memory-maps an existing snapshot.
+     */
+    public static DriverSnapshot open(String fileName)
+        throws IOException {
+
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        if (channel.size() > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Snapshot is too large to map: " + fileName);
+        }
+
+        try {
+            return new DriverSnapshot(channel, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static boolean exists(String fileName) {
+        return fileName != null && Files.isRegularFile(Paths.get(fileName));
+    }
+
+    public int size() {
+        return driverCount;
+    }
+
+    /*
+     * Returns the input files already in the snapshot, by absolute path.
+     */
+    public List<InputFile> getInputFiles() {
+        return inputFiles;
+    }
+
+    public String getId(int index) {
+        return readId(record(index));
+    }
+
+    public int getNumTrips(int index) {
+        return buffer.getInt(record(index) + TRIPS);
+    }
+
+    public int getNumTaxis(int index) {
+        return buffer.getInt(record(index) + TAXIS);
+    }
+
+    public float getTotalAmount(int index) {
+        return buffer.getFloat(record(index) + AMOUNT);
+    }
+
+    public long getTimeSpentDriving(int index) {
+        return buffer.getLong(record(index) + SECONDS);
+    }
+
+    /*
+     * Returns the index of the driver with the given id, or -1 if it isn't in
+     * the snapshot.
+     */
+    public int find(String id) {
+
+        int low = 0;
+        int high = driverCount - 1;
+        while (low <= high) {
+
+            int mid = (low + high) >>> 1;
+            int cmp = compareId(record(mid), id);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /*
+     * Rebuilds the full driver at the given index, taxi ids included.
+     */
+    public Driver getDriver(int index) {
+
+        int record = record(index);
+        int numTaxis = buffer.getInt(record + TAXIS);
+        long taxiStart = buffer.getLong(record + TAXI_START);
+
+        HashSet<String> taxiIds = new HashSet<>(numTaxis * 2);
+        for (int i = 0; i < numTaxis; i++)
+            taxiIds.add(readId((int) (taxisOffset + (taxiStart + i) * ID_SIZE)));
+
+        return new Driver(readId(record), buffer.getInt(record + TRIPS), buffer.getFloat(record + AMOUNT),
+            buffer.getLong(record + SECONDS), taxiIds);
+    }
+
+    /*
+     * Loads every driver in the snapshot, keyed by id.
+     */
+    public HashMap<String, Driver> loadDrivers() {
+
+        HashMap<String, Driver> drivers = new HashMap<>(driverCount * 2);
+        for (int i = 0; i < driverCount; i++) {
+            Driver driver = getDriver(i);
+            drivers.put(driver.getId(), driver);
+        }
+        return drivers;
+    }
+
+    @Override
+    public void close()
+        throws IOException {
+        channel.close();
+    }
+
+    /*
+     * Writes a new snapshot of the given drivers and input files. The file is
+     * written next to the target and then moved into place, so a crash never
+     * leaves a half written snapshot behind.
+     */
+    public static void write(String fileName, Collection<Driver> drivers, Collection<InputFile> inputFiles)
+        throws IOException {
+
+        List<Driver> sorted = new ArrayList<>(drivers);
+        sorted.sort((a, b) -> a.getId().compareTo(b.getId()));
+
+        long taxiCount = 0;
+        for (Driver driver : sorted)
+            taxiCount += driver.getTaxiIds().size();
+
+        long recordsOffset = HEADER_SIZE;
+        long taxisOffset = recordsOffset + (long) sorted.size() * RECORD_SIZE;
+        long filesOffset = taxisOffset + taxiCount * ID_SIZE;
+
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), 1 << 16))) {
+
+            // header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.size());
+            out.writeInt(0);
+            out.writeLong(recordsOffset);
+            out.writeLong(taxisOffset);
+            out.writeLong(taxiCount);
+            out.writeLong(filesOffset);
+            out.writeInt(inputFiles.size());
+            out.write(new byte[HEADER_SIZE - 52]);
+
+            // driver records
+            long taxiStart = 0;
+            for (Driver driver : sorted) {
+                writeId(out, driver.getId());
+                out.writeInt(driver.getNumTrips());
+                out.writeInt(driver.getTaxiIds().size());
+                out.writeFloat(driver.getTotalAmount());
+                out.writeInt(0);
+                out.writeLong(driver.getTimeSpentDriving());
+                out.writeLong(taxiStart);
+                taxiStart += driver.getTaxiIds().size();
+            }
+
+            // taxi ids, in the same order as the records
+            for (Driver driver : sorted) {
+                for (String taxiId : driver.getTaxiIds())
+                    writeId(out, taxiId);
+            }
+
+            // input files
+            for (InputFile inputFile : inputFiles) {
+                byte[] path = inputFile.getPath().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(path.length);
+                out.write(path);
+                out.writeLong(inputFile.getSize());
+                out.writeLong(inputFile.getLastModified());
+            }
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /*
+     * Returns the given input files that aren't in the snapshot yet, as
+     * absolute paths. Without a snapshot, every file is new.
+     *
+     * A file the snapshot holds under the same path, but with another size
+     * or modification time, was rewritten since; and a file under a new path
+     * that matches one the snapshot holds was likely moved or copied. Either
+     * way the snapshot can't be brought up to date by adding files, so both
+     * are errors.
+     */
+    public static List<String> newInputFiles(String snapshotFile, Collection<String> inputFiles)
+        throws IOException {
+
+        HashMap<String, InputFile> seen = new HashMap<>();
+        if (exists(snapshotFile)) {
+            try (DriverSnapshot snapshot = open(snapshotFile)) {
+                for (InputFile inputFile : snapshot.getInputFiles())
+                    seen.put(inputFile.getPath(), inputFile);
+            }
+        }
+
+        List<String> newFiles = new ArrayList<>();
+        for (InputFile inputFile : InputFile.of(new LinkedHashSet<>(absolutePaths(inputFiles)))) {
+
+            InputFile old = seen.get(inputFile.getPath());
+            if (old != null) {
+                if (!old.sameContents(inputFile))
+                    throw new IOException(inputFile.getPath() + " changed since it was added to snapshot "
+                        + snapshotFile + ": delete the snapshot to rebuild it");
+                continue;
+            }
+
+            for (InputFile other : seen.values()) {
+                if (other.sameContents(inputFile))
+                    throw new IOException(inputFile.getPath() + " looks like " + other.getPath()
+                        + ", which snapshot " + snapshotFile + " already holds");
+            }
+            newFiles.add(inputFile.getPath());
+        }
+        return newFiles;
+    }
+
+    /*
+     * Throws if any of the files a job read is already in the snapshot,
+     * under the same path or as a copy, since adding its drivers again would
+     * count its trips twice. Mappers skip such files, so this only happens if
+     * a mapper was run without the snapshot, or two jobs ran at once.
+     */
+    public static void checkNotHeld(String snapshotFile, Collection<InputFile> held, Collection<InputFile> read)
+        throws IOException {
+
+        for (InputFile inputFile : read) {
+            for (InputFile other : held) {
+                if (other.getPath().equals(inputFile.getPath()) || other.sameContents(inputFile))
+                    throw new IOException(inputFile.getPath() + " is already in snapshot " + snapshotFile
+                        + (other.getPath().equals(inputFile.getPath()) ? "" : " as " + other.getPath()));
+            }
+        }
+    }
+
+    public static List<String> absolutePaths(Collection<String> files) {
+
+        List<String> paths = new ArrayList<>(files.size());
+        for (String file : files)
+            paths.add(Paths.get(file).toAbsolutePath().normalize().toString());
+        return paths;
+    }
+
+    private int record(int index) {
+
+        if (index < 0 || index >= driverCount)
+            throw new IndexOutOfBoundsException("driver " + index + " of " + driverCount);
+        return HEADER_SIZE + index * RECORD_SIZE;
+    }
+
+    /*
+     * Ids are stored as 32 ASCII bytes, padded with zeros if shorter. Any
+     * other id fails the write, so it never reaches a snapshot.
+     */
+    private String readId(int offset) {
+
+        int length = 0;
+        while (length < ID_SIZE && buffer.get(offset + length) != 0)
+            length++;
+
+        byte[] id = new byte[length];
+        for (int i = 0; i < length; i++)
+            id[i] = buffer.get(offset + i);
+        return new String(id, StandardCharsets.US_ASCII);
+    }
+
+    private int compareId(int offset, String id) {
+
+        for (int i = 0; i < ID_SIZE; i++) {
+
+            int stored = buffer.get(offset + i) & 0xff;
+            int wanted = i < id.length() ? id.charAt(i) : 0;
+            if (stored != wanted)
+                return stored - wanted;
+        }
+        return id.length() > ID_SIZE ? -1 : 0;
+    }
+
+    private static void writeId(DataOutputStream out, String id)
+        throws IOException {
+
+        if (id.length() > ID_SIZE)
+            throw new IOException("Id longer than " + ID_SIZE + " characters: " + id);
+
+        for (int i = 0; i < id.length(); i++) {
+            if (id.charAt(i) == 0 || id.charAt(i) > 0x7f)
+                throw new IOException("Id isn't ASCII: " + id);
+        }
+
+        for (int i = 0; i < ID_SIZE; i++)
+            out.writeByte(i < id.length() ? id.charAt(i) : 0);
+    }
+}
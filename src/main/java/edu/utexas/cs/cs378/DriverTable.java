@@ -0,0 +1,320 @@
+package edu.utexas.cs.cs378;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/*
+ * The per-driver aggregates of a mapper, keyed by the dense ids of an
+ * 'IdDictionary' rather than by Strings.
+ *
+ * Each driver has 1 + parts slots of primitive counters: the first for its
+ * trips, and, once the driver is hot, one per reducer its trips are salted
+ * across. Each trip of a hot driver goes to the part with the fewest trips so
+ * far, so the parts stay even, and the trips from before the driver was hot
+ * are sent along with the part of its own reducer. Parts may share taxis,
+ * which the merge server unions when it combines them. The distinct taxis of
+ * every slot are kept as packed (slot, taxi) pairs in a single open
+ * addressing set of longs.
+ *
+ * 'Driver' objects, and the Strings of their ids, are only built when the
+ * table is partitioned to be sent. (Only the ids are kept out of Strings: the
+ * line itself, and its other fields, are still Strings while 'Trip' parses
+ * and validates them.)
+ *
+ * Each worker of a mapper has a table of its own, so that workers never wait
+ * on each other, and their tables are combined when partitioned. A table is
+ * only locked against partitioning while the workers run, e.g. for progress.
+ */
+public class DriverTable {
+
+    private static final long EMPTY = -1L;
+
+    private final int parts;
+    private final int slotsPerDriver;
+    private final IdDictionary driverIds = new IdDictionary(1 << 12);
+    private final IdDictionary taxiIds = new IdDictionary(1 << 12);
+
+    // counters by slot
+    private int[] trips = new int[1 << 12];
+    private float[] amounts = new float[trips.length];
+    private long[] seconds = new long[trips.length];
+    private int[] taxiCounts = new int[trips.length];
+
+    // (slot << 32 | taxi) pairs seen so far
+    private long[] taxiPairs = newPairs(1 << 14);
+    private int pairCount = 0;
+
+    // the hot drivers: their ids, and their dense ids once seen.
+    private String[] hotNames = new String[0];
+    private BitSet hot = new BitSet();
+
+    public DriverTable(int parts) {
+        this.parts = parts;
+        this.slotsPerDriver = 1 + parts;
+    }
+
+    /*
+     * Salts the trips of the given drivers from now on.
+     */
+    public synchronized void setHotDrivers(Collection<String> hotDrivers) {
+
+        hotNames = hotDrivers.toArray(new String[0]);
+        hot = new BitSet();
+        for (int driver = 0; driver < driverIds.size(); driver++) {
+            if (hotDrivers.contains(driverIds.getId(driver)))
+                hot.set(driver);
+        }
+    }
+
+    /*
+     * Adds a trip to its driver, looking both ids up straight from the line.
+     */
+    public synchronized void reportTrip(Trip trip) {
+
+        String line = trip.getLine();
+        int known = driverIds.size();
+        int driver = driverIds.idOf(line, trip.getDriverStart(), trip.getDriverEnd());
+        int taxi = taxiIds.idOf(line, trip.getTaxiStart(), trip.getTaxiEnd());
+
+        // a driver seen for the first time is checked against the hot ones.
+        if (driver == known && isHot(line, trip.getDriverStart(), trip.getDriverEnd()))
+            hot.set(driver);
+
+        int slot = driver * slotsPerDriver;
+        if (slot + slotsPerDriver > trips.length) {
+            int length = Math.max(trips.length * 2, slot + slotsPerDriver);
+            trips = Arrays.copyOf(trips, length);
+            amounts = Arrays.copyOf(amounts, length);
+            seconds = Arrays.copyOf(seconds, length);
+            taxiCounts = Arrays.copyOf(taxiCounts, length);
+        }
+
+        if (hot.get(driver))
+            slot += 1 + saltOf(slot, partitionOf(line, trip.getDriverStart(), trip.getDriverEnd(), parts));
+
+        trips[slot]++;
+        amounts[slot] += trip.getAmount();
+        seconds[slot] += trip.getTripDuration();
+        if (addPair(((long) slot << 32) | taxi))
+            taxiCounts[slot]++;
+    }
+
+    /*
+     * Builds the drivers of every reducer's partition. Drivers go to the
+     * partition of the hash of their id, except the salted parts of hot
+     * drivers, which go to the partition they were salted with. Every part of
+     * a hot driver is flagged as partial, and its trips from before it was hot
+     * are combined with its part for its own partition.
+     */
+    public synchronized ArrayList<ArrayList<Driver>> partition() {
+
+        // the taxis of every slot, in the order of the pairs.
+        int slots = driverIds.size() * slotsPerDriver;
+        int[] taxiStarts = new int[slots + 1];
+        for (int slot = 0; slot < slots; slot++)
+            taxiStarts[slot + 1] = taxiStarts[slot] + taxiCounts[slot];
+
+        int[] taxisBySlot = new int[pairCount];
+        int[] filled = Arrays.copyOf(taxiStarts, slots);
+        for (long pair : taxiPairs) {
+            if (pair != EMPTY)
+                taxisBySlot[filled[(int) (pair >>> 32)]++] = (int) pair;
+        }
+
+        ArrayList<ArrayList<Driver>> partitions = new ArrayList<>();
+        for (int i = 0; i < parts; i++)
+            partitions.add(new ArrayList<>());
+
+        // the last driver's part for its own partition, which comes first.
+        int homeDriver = -1;
+        int homePartition = -1;
+        Driver homePart = null;
+
+        for (int slot = 0; slot < slots; slot++) {
+
+            if (trips[slot] == 0)
+                continue;
+
+            int driver = slot / slotsPerDriver;
+            int salt = slot % slotsPerDriver - 1;
+
+            HashSet<String> taxis = new HashSet<>(taxiCounts[slot] * 2);
+            for (int i = taxiStarts[slot]; i < taxiStarts[slot + 1]; i++)
+                taxis.add(taxiIds.getId(taxisBySlot[i]));
+
+            String id = driverIds.getId(driver);
+            Driver part = new Driver(id, trips[slot], amounts[slot], seconds[slot], taxis);
+            part.setPartial(hot.get(driver));
+            int partition = salt >= 0 ? salt : partitionOf(id, parts);
+
+            if (driver == homeDriver && partition == homePartition) {
+                homePart.merge(part);
+                continue;
+            }
+
+            partitions.get(partition).add(part);
+            if (salt < 0) {
+                homeDriver = driver;
+                homePartition = partition;
+                homePart = part;
+            }
+        }
+        return partitions;
+    }
+
+    /*
+     * Builds the partitions of several tables, e.g. one per worker, combining
+     * the records that the tables have of the same driver.
+     */
+    public static ArrayList<ArrayList<Driver>> partition(DriverTable[] tables) {
+
+        if (tables.length == 1)
+            return tables[0].partition();
+
+        ArrayList<HashMap<String, Driver>> combined = new ArrayList<>();
+        for (DriverTable table : tables) {
+
+            ArrayList<ArrayList<Driver>> partitions = table.partition();
+            for (int i = 0; i < partitions.size(); i++) {
+
+                if (combined.size() <= i)
+                    combined.add(new HashMap<>());
+
+                for (Driver driver : partitions.get(i)) {
+                    Driver known = combined.get(i).putIfAbsent(driver.getId(), driver);
+                    if (known != null)
+                        known.merge(driver);
+                }
+            }
+        }
+
+        ArrayList<ArrayList<Driver>> partitions = new ArrayList<>();
+        for (HashMap<String, Driver> drivers : combined)
+            partitions.add(new ArrayList<>(drivers.values()));
+        return partitions;
+    }
+
+    /*
+     * Returns the reducer a driver belongs to. Every mapper sends a driver to
+     * the same reducer, so that partial results can be combined there.
+     */
+    public static int partitionOf(String driverId, int parts) {
+        return Math.floorMod(driverId.hashCode(), parts);
+    }
+
+    /*
+     * The same as 'partitionOf' for the id at [start, end) of the line: the
+     * String hash of the id, computed without cutting it out.
+     */
+    private static int partitionOf(CharSequence line, int start, int end, int parts) {
+
+        int hash = 0;
+        for (int i = start; i < end; i++)
+            hash = 31 * hash + line.charAt(i);
+        return Math.floorMod(hash, parts);
+    }
+
+    /*
+     * Returns the part the next trip of a hot driver goes to: the one with
+     * the fewest trips so far, counting the trips from before the driver was
+     * hot towards the part of its own partition, which they're sent with.
+     */
+    private int saltOf(int base, int home) {
+
+        int best = 0;
+        long fewest = Long.MAX_VALUE;
+        for (int part = 0; part < parts; part++) {
+
+            long load = (long) trips[base + 1 + part] + (part == home ? trips[base] : 0);
+            if (load < fewest) {
+                best = part;
+                fewest = load;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Describes the ids interned by the given tables. A driver or taxi seen
+     * by several workers is counted in each of their tables.
+     */
+    public static String describe(DriverTable[] tables) {
+
+        long drivers = 0, taxis = 0, bytes = 0;
+        for (DriverTable table : tables) {
+            synchronized (table) {
+                drivers += table.driverIds.size();
+                taxis += table.taxiIds.size();
+                bytes += table.driverIds.offHeapBytes() + table.taxiIds.offHeapBytes();
+            }
+        }
+        return drivers + " driver ids and " + taxis + " taxi ids in " + tables.length + " table(s), in "
+            + bytes / 1024 + " KB off-heap";
+    }
+
+    private boolean isHot(String line, int start, int end) {
+
+        for (String name : hotNames) {
+            if (name.length() == end - start && line.regionMatches(start, name, 0, end - start))
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * Adds a pair to the set, returning whether it's new.
+     */
+    private boolean addPair(long pair) {
+
+        int mask = taxiPairs.length - 1;
+        for (int i = mix(pair) & mask; ; i = (i + 1) & mask) {
+
+            if (taxiPairs[i] == pair)
+                return false;
+
+            if (taxiPairs[i] == EMPTY) {
+                taxiPairs[i] = pair;
+                if (++pairCount * 2 > taxiPairs.length)
+                    growPairs();
+                return true;
+            }
+        }
+    }
+
+    private void growPairs() {
+
+        long[] old = taxiPairs;
+        taxiPairs = newPairs(old.length * 2);
+
+        int mask = taxiPairs.length - 1;
+        for (long pair : old) {
+
+            if (pair == EMPTY)
+                continue;
+
+            int i = mix(pair) & mask;
+            while (taxiPairs[i] != EMPTY)
+                i = (i + 1) & mask;
+            taxiPairs[i] = pair;
+        }
+    }
+
+    private static long[] newPairs(int length) {
+
+        long[] pairs = new long[length];
+        Arrays.fill(pairs, EMPTY);
+        return pairs;
+    }
+
+    private static int mix(long value) {
+
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return (int) value;
+    }
+}
@@ -0,0 +1,81 @@
+package edu.utexas.cs.cs378;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * Splits command line arguments into positional arguments and optional
+ * '--name=value' flags. A flag without a value ('--name') is read as "true".
+ */
+public class Flags {
+
+    private final List<String> positional = new ArrayList<>();
+    private final HashMap<String, String> flags = new HashMap<>();
+
+    public Flags(String[] args) {
+
+        for (String arg : args) {
+
+            if (!arg.startsWith("--")) {
+                positional.add(arg);
+                continue;
+            }
+
+            int equals = arg.indexOf('=');
+            if (equals < 0)
+                flags.put(arg.substring(2), "true");
+            else
+                flags.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+    }
+
+    /*
+     * Returns the positional arguments, in order.
+     */
+    public List<String> positional() {
+        return positional;
+    }
+
+    /*
+     * Throws if a flag was given that isn't one of the names a program reads,
+     * e.g. a misspelled flag that would otherwise silently keep its default.
+     */
+    public void allow(String... names) {
+        allow(Arrays.asList(names));
+    }
+
+    public void allow(Collection<String> names) {
+
+        for (String name : flags.keySet()) {
+            if (!names.contains(name))
+                throw new IllegalArgumentException("unknown flag --" + name);
+        }
+    }
+
+    public boolean has(String name) {
+        return flags.containsKey(name);
+    }
+
+    public String getString(String name, String defaultValue) {
+        return flags.containsKey(name) ? flags.get(name) : defaultValue;
+    }
+
+    public int getInt(String name, int defaultValue) {
+        return flags.containsKey(name) ? Integer.parseInt(flags.get(name)) : defaultValue;
+    }
+
+    public long getLong(String name, long defaultValue) {
+        return flags.containsKey(name) ? Long.parseLong(flags.get(name)) : defaultValue;
+    }
+
+    public double getDouble(String name, double defaultValue) {
+        return flags.containsKey(name) ? Double.parseDouble(flags.get(name)) : defaultValue;
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        return flags.containsKey(name) ? Boolean.parseBoolean(flags.get(name)) : defaultValue;
+    }
+}
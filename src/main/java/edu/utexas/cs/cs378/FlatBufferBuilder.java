@@ -0,0 +1,184 @@
+package edu.utexas.cs.cs378;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * A minimal FlatBuffers builder, enough to write the metadata of Arrow IPC
+ * files without depending on the flatbuffers library.
+ *
+ * Like the official builder, the buffer is filled back to front: children
+ * (strings, vectors, tables) are written before the tables that refer to
+ * them, and every method returns an "offset", measured from the end of the
+ * buffer, that parents use to refer to what was written.
+ */
+public class FlatBufferBuilder {
+
+    private ByteBuffer buffer;
+    private int space;
+    private int minAlign = 1;
+
+    // the table being built: where it starts, and the offset of each field.
+    private int[] vtable;
+    private int objectStart;
+
+    public FlatBufferBuilder(int initialSize) {
+        buffer = ByteBuffer.allocate(Math.max(initialSize, 64)).order(ByteOrder.LITTLE_ENDIAN);
+        space = buffer.capacity();
+    }
+
+    public int offset() {
+        return buffer.capacity() - space;
+    }
+
+    /*
+     * Pads so that 'size' is aligned once 'additional' more bytes are written.
+     */
+    public void prep(int size, int additional) {
+
+        minAlign = Math.max(minAlign, size);
+        int padding = (~(offset() + additional) + 1) & (size - 1);
+        while (space < padding + size + additional)
+            grow();
+        for (int i = 0; i < padding; i++)
+            buffer.put(--space, (byte) 0);
+    }
+
+    public void putByte(byte value) {
+        buffer.put(space -= 1, value);
+    }
+
+    public void putShort(short value) {
+        buffer.putShort(space -= 2, value);
+    }
+
+    public void putInt(int value) {
+        buffer.putInt(space -= 4, value);
+    }
+
+    public void putLong(long value) {
+        buffer.putLong(space -= 8, value);
+    }
+
+    public int createString(String value) {
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        prep(4, bytes.length + 1);
+        putByte((byte) 0);
+        space -= bytes.length;
+        for (int i = 0; i < bytes.length; i++)
+            buffer.put(space + i, bytes[i]);
+        putInt(bytes.length);
+        return offset();
+    }
+
+    /*
+     * Writes a vector of offsets to tables or strings, in order.
+     */
+    public int createOffsetVector(int[] offsets) {
+
+        startVector(4, offsets.length, 4);
+        for (int i = offsets.length - 1; i >= 0; i--)
+            addOffset(offsets[i]);
+        return endVector(offsets.length);
+    }
+
+    /*
+     * Starts a vector of 'count' elements of 'elementSize' bytes. Elements
+     * must then be written last to first.
+     */
+    public void startVector(int elementSize, int count, int alignment) {
+        prep(4, elementSize * count);
+        prep(alignment, elementSize * count);
+    }
+
+    public int endVector(int count) {
+        prep(4, 0);
+        putInt(count);
+        return offset();
+    }
+
+    public void addOffset(int target) {
+        prep(4, 0);
+        putInt(offset() - target + 4);
+    }
+
+    public void startTable(int numFields) {
+        vtable = new int[numFields];
+        objectStart = offset();
+    }
+
+    public void addByte(int field, byte value) {
+        prep(1, 0);
+        putByte(value);
+        vtable[field] = offset();
+    }
+
+    public void addBoolean(int field, boolean value) {
+        addByte(field, (byte) (value ? 1 : 0));
+    }
+
+    public void addShort(int field, short value) {
+        prep(2, 0);
+        putShort(value);
+        vtable[field] = offset();
+    }
+
+    public void addInt(int field, int value) {
+        prep(4, 0);
+        putInt(value);
+        vtable[field] = offset();
+    }
+
+    public void addLong(int field, long value) {
+        prep(8, 0);
+        putLong(value);
+        vtable[field] = offset();
+    }
+
+    public void addOffset(int field, int target) {
+        addOffset(target);
+        vtable[field] = offset();
+    }
+
+    /*
+     * Writes the table's vtable right before it, and returns the table.
+     */
+    public int endTable() {
+
+        prep(4, 0);
+        putInt(0);
+        int object = offset();
+
+        prep(2, (vtable.length + 2) * 2);
+        for (int field = vtable.length - 1; field >= 0; field--)
+            putShort((short) (vtable[field] == 0 ? 0 : object - vtable[field]));
+        putShort((short) (object - objectStart));
+        putShort((short) ((vtable.length + 2) * 2));
+
+        // point the table at its vtable.
+        buffer.putInt(buffer.capacity() - object, offset() - object);
+        vtable = null;
+        return object;
+    }
+
+    /*
+     * Writes the root offset, and returns the finished buffer.
+     */
+    public byte[] finish(int root) {
+        prep(minAlign, 4);
+        addOffset(root);
+        return Arrays.copyOfRange(buffer.array(), space, buffer.capacity());
+    }
+
+    private void grow() {
+
+        int oldCapacity = buffer.capacity();
+        ByteBuffer grown = ByteBuffer.allocate(oldCapacity * 2).order(ByteOrder.LITTLE_ENDIAN);
+        System.arraycopy(buffer.array(), 0, grown.array(), oldCapacity, oldCapacity);
+        buffer = grown;
+        space += oldCapacity;
+    }
+}
@@ -0,0 +1,198 @@
+package edu.utexas.cs.cs378;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Assigns dense int ids (0, 1, 2, ...) to the medallions and hack licenses of
+ * the input, without creating a String per row.
+ *
+ * The ids are 32 character upper case hex MD5 hashes, so each is decoded
+ * straight from the line into two longs, which are looked up in an open
+ * addressing hash table held off-heap:
+ *
+ *   slot    24 bytes: high & low 64 bits of the id, dense id + 1 (0 if empty)
+ *
+ * Anything that isn't such an id (e.g. a corrupted row) falls back to a
+ * regular map, so every id still gets a dense id of its own. Strings are only
+ * rebuilt for the ids that are output, by 'getId'.
+ *
+ * Not thread safe: callers must synchronize.
+ */
+public class IdDictionary {
+
+    private static final int HEX_LENGTH = 32;
+    private static final int SLOT_SIZE = 24;
+    private static final int ID = 16;
+
+    private ByteBuffer table;
+    private int capacity;
+    private int size = 0;
+
+    // the decoded ids, by dense id, for rebuilding their Strings.
+    private long[] highs;
+    private long[] lows;
+
+    // the ids that aren't hex MD5 hashes, both ways.
+    private final HashMap<String, Integer> irregularIds = new HashMap<>();
+    private final HashMap<Integer, String> irregularNames = new HashMap<>();
+
+    public IdDictionary(int expectedIds) {
+
+        capacity = Integer.highestOneBit(Math.max(expectedIds, 8) * 2 - 1) * 2;
+        table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        highs = new long[Math.max(expectedIds, 8)];
+        lows = new long[highs.length];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /*
+     * The bytes held off-heap by the hash table.
+     */
+    public long offHeapBytes() {
+        return (long) capacity * SLOT_SIZE;
+    }
+
+    /*
+     * Returns the dense id of chars [start, end) of the given line, assigning
+     * the next one if the id wasn't seen yet.
+     */
+    public int idOf(CharSequence line, int start, int end) {
+
+        if (end - start != HEX_LENGTH)
+            return irregularIdOf(line, start, end);
+
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < 16; i++) {
+
+            int highDigit = hexDigit(line.charAt(start + i));
+            int lowDigit = hexDigit(line.charAt(start + 16 + i));
+            if ((highDigit | lowDigit) < 0)
+                return irregularIdOf(line, start, end);
+
+            high = (high << 4) | highDigit;
+            low = (low << 4) | lowDigit;
+        }
+
+        // linear probing, from the slot the mixed bits of the id point at.
+        int mask = capacity - 1;
+        for (int slot = hash(high, low) & mask; ; slot = (slot + 1) & mask) {
+
+            int offset = slot * SLOT_SIZE;
+            int id = table.getInt(offset + ID) - 1;
+            if (id < 0)
+                return insert(offset, high, low);
+            if (table.getLong(offset) == high && table.getLong(offset + 8) == low)
+                return id;
+        }
+    }
+
+    /*
+     * Rebuilds the String of a dense id.
+     */
+    public String getId(int id) {
+
+        String irregular = irregularNames.get(id);
+        if (irregular != null)
+            return irregular;
+
+        char[] chars = new char[HEX_LENGTH];
+        for (int i = 15; i >= 0; i--) {
+            chars[i] = hexChar(highs[id] >>> ((15 - i) * 4));
+            chars[16 + i] = hexChar(lows[id] >>> ((15 - i) * 4));
+        }
+        return new String(chars);
+    }
+
+    private int insert(int offset, long high, long low) {
+
+        int id = nextId(high, low);
+        table.putLong(offset, high);
+        table.putLong(offset + 8, low);
+        table.putInt(offset + ID, id + 1);
+
+        // keep the table at most half full.
+        if (size * 2 > capacity)
+            grow();
+        return id;
+    }
+
+    private int irregularIdOf(CharSequence line, int start, int end) {
+
+        String name = line.subSequence(start, end).toString();
+        Integer id = irregularIds.get(name);
+        if (id == null) {
+            id = nextId(0, 0);
+            irregularIds.put(name, id);
+            irregularNames.put(id, name);
+        }
+        return id;
+    }
+
+    private int nextId(long high, long low) {
+
+        if (size == highs.length) {
+            highs = Arrays.copyOf(highs, size * 2);
+            lows = Arrays.copyOf(lows, size * 2);
+        }
+        highs[size] = high;
+        lows[size] = low;
+        return size++;
+    }
+
+    /*
+     * Doubles the table, re-inserting every id from the dense arrays.
+     */
+    private void grow() {
+
+        capacity *= 2;
+        table = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+
+        int mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+
+            if (irregularNames.containsKey(id))
+                continue;
+
+            int slot = hash(highs[id], lows[id]) & mask;
+            while (table.getInt(slot * SLOT_SIZE + ID) != 0)
+                slot = (slot + 1) & mask;
+
+            int offset = slot * SLOT_SIZE;
+            table.putLong(offset, highs[id]);
+            table.putLong(offset + 8, lows[id]);
+            table.putInt(offset + ID, id + 1);
+        }
+    }
+
+    /*
+     * MD5 bits are already uniform, but mixing keeps the table well spread
+     * for any input.
+     */
+    static int hash(long high, long low) {
+
+        long h = high ^ Long.rotateLeft(low, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+
+    private static int hexDigit(char c) {
+
+        if (c >= '0' && c <= '9')
+            return c - '0';
+        if (c >= 'A' && c <= 'F')
+            return c - 'A' + 10;
+        return -1;
+    }
+
+    private static char hexChar(long bits) {
+        return "0123456789ABCDEF".charAt((int) (bits & 0xf));
+    }
+}
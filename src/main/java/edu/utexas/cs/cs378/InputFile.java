@@ -0,0 +1,87 @@
+package edu.utexas.cs.cs378;
+
+import java.io.File;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+
+/*
+ * An input file of a job: its absolute path, along with the size and last
+ * modified time it had when it was read.
+ *
+ * The size and time tell a snapshot whether a file it already holds was
+ * rewritten in place, or whether a file at a new path is one it holds that
+ * was moved or copied there.
+ */
+public class InputFile {
+
+    private String path;
+    private long size;
+    private long lastModified;
+
+    public InputFile() {};
+
+    public InputFile(String path, long size, long lastModified) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    /*
+     * Describes the given file as it is on disk now.
+     */
+    public static InputFile of(String fileName) {
+
+        File file = Paths.get(fileName).toAbsolutePath().normalize().toFile();
+        return new InputFile(file.getPath(), file.length(), file.lastModified());
+    }
+
+    public static List<InputFile> of(Collection<String> fileNames) {
+
+        List<InputFile> files = new ArrayList<>(fileNames.size());
+        for (String fileName : fileNames)
+            files.add(of(fileName));
+        return files;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /*
+     * Whether the other file has the same size and modification time, i.e.
+     * likely the same contents, wherever it is.
+     */
+    public boolean sameContents(InputFile other) {
+        return size == other.size && lastModified == other.lastModified;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+
+        if (!(other instanceof InputFile))
+            return false;
+        InputFile file = (InputFile) other;
+        return path.equals(file.path) && sameContents(file);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, size, lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return path + " (" + size + " bytes, modified " + lastModified + ")";
+    }
+}
@@ -0,0 +1,55 @@
+package edu.utexas.cs.cs378;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.util.Pool;
+
+/*
+ * The kryo instances of a node, shared by all of its connections and the
+ * runs its reducer spills to disk.
+ *
+ * Building a kryo and registering every class costs more than a small job
+ * sends over a connection, so instances are created once and handed back to
+ * the pool when a connection is done with them. A kryo isn't thread safe, so
+ * each one is only used by a single connection at a time.
+ */
+public class KryoPool {
+
+    private static final Pool<Kryo> pool = new Pool<Kryo>(true, false) {
+        @Override
+        protected Kryo create() {
+            return createKryo();
+        }
+    };
+
+    public static Kryo obtain() {
+        return pool.obtain();
+    }
+
+    /*
+     * Returns a kryo to the pool, clearing any state left over from a
+     * stream that ended early.
+     */
+    public static void free(Kryo kryo) {
+        kryo.reset();
+        pool.free(kryo);
+    }
+
+    /*
+     * Creates a kryo with every type sent between the nodes registered, in
+     * the same order on every node.
+     */
+    private static Kryo createKryo() {
+
+        Kryo kryo = new Kryo();
+        kryo.register(Driver.class);
+        kryo.register(HashSet.class);
+        kryo.register(CellStats.class);
+        kryo.register(ProgressUpdate.class);
+        kryo.register(ArrayList.class);
+        kryo.register(InputFile.class);
+        return kryo;
+    }
+}
@@ -0,0 +1,62 @@
+package edu.utexas.cs.cs378;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+/*
+ * The main class of the packaged jar, which runs any node by name, e.g.
+ *
+ *   java -jar target/taxi-analysis-jar-with-dependencies.jar mapper <args>
+ *
+ * For small inputs, most of a node's time goes to starting the JVM and
+ * loading classes, so the time from the JVM's start until the node's main
+ * method is printed as the "startup" stage.
+ */
+public class Launcher {
+
+    private static final String USAGE = "<merge|reducer|mapper|cluster|generator|query> [node arguments]";
+
+    public static void main(String[] args)
+        throws Exception {
+
+        if (args.length == 0) {
+            System.out.println("Correct usage: " + USAGE);
+            return;
+        }
+
+        String node = args[0];
+        String[] nodeArgs = Arrays.copyOfRange(args, 1, args.length);
+        System.out.println("Stage startup took " + uptime() + " ms");
+
+        switch (node) {
+            case "merge":
+                MergeServer.main(nodeArgs);
+                break;
+            case "reducer":
+                ReducerServer.main(nodeArgs);
+                break;
+            case "mapper":
+                MapperClient.main(nodeArgs);
+                break;
+            case "cluster":
+                LocalCluster.main(nodeArgs);
+                break;
+            case "generator":
+                TripDataGenerator.main(nodeArgs);
+                break;
+            case "query":
+                QueryServer.main(nodeArgs);
+                break;
+            default:
+                System.out.println("Unknown node: " + node);
+                System.out.println("Correct usage: " + USAGE);
+        }
+    }
+
+    /*
+     * The time since this JVM started, in ms.
+     */
+    public static long uptime() {
+        return ManagementFactory.getRuntimeMXBean().getUptime();
+    }
+}
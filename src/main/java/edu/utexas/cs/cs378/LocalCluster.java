@@ -0,0 +1,707 @@
+package edu.utexas.cs.cs378;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Runs the whole cluster (1 merge server, 2 reducers, 2 mappers) on loopback
+ * ports from a single command, so that a full job can be used as a regression
+ * test for both correctness and throughput on one machine.
+ *
+ * Each node runs as a child JVM on the same classpath, since the servers keep
+ * their state in static fields. Child output is echoed with a prefix, and the
+ * "Stage <name> took <ms> ms" lines they print are collected into a summary.
+ *
+ * Children are started through 'Launcher', with the startup options of this
+ * JVM (class data sharing and JIT tiers), so that a cluster started from the
+ * packaged launcher starts every node the same way.
+ */
+public class LocalCluster {
+
+    private static final Pattern STAGE_PATTERN = Pattern.compile("Stage (\\S+) took (\\d+) ms");
+    private static final Pattern LOAD_PATTERN = Pattern.compile("Load: received (\\d+) drivers \\((\\d+) partial\\), (\\d+) bytes");
+    private static final Pattern EXPORT_PATTERN = Pattern.compile("Exported (\\d+) drivers in (\\d+) chunk\\(s\\) with (\\S+) revenue");
+    private static final Pattern CELL_PATTERN = Pattern.compile("Cell \\[id=(\\d+),.*revenue=([^,]+),");
+    private static final Pattern RESULT_PATTERN = Pattern.compile(
+        "Driver \\[id=([^,]+), trips=(\\d+), taxis=(\\d+), totalAmount=([^,]+), moneyPerMinute=([^\\]]+)\\]");
+
+    private static int basePort = 34000;
+    private static int rowsPerMapper = 100000;
+    private static int numDrivers = 2000;
+    private static int k = 10;
+    private static double skew = 1.0;
+
+    // how long a job may run before its nodes are killed.
+    private static int timeoutSeconds = 600;
+
+    // rows per record batch of an export, a fraction of the drivers.
+    private static final int EXPORT_CHUNK_ROWS = 500;
+
+    // flags passed to the reducers of every job, e.g. to force spilling.
+    private static List<String> reducerOptions = new ArrayList<>();
+    private static File workDir = new File("target/local-cluster");
+    private static final String USAGE = "[rows per mapper] [base port] [--incremental] "
+        + "[--engine=spatial [--grid=<rows>x<cols>]] [--progressive] [--sample=<rate>] [--skew=<s>] "
+        + "[--max-drivers=<n>] [--export] [--timeout=<seconds>]";
+
+    // stage timings reported by the children, in the order they arrived.
+    private static final List<String> stageTimings = new ArrayList<>();
+
+    // when the current job started, and when a mapper first processed a row.
+    private static long jobStart;
+    private static long firstRowTime;
+
+    // the load reported by each reducer: its name, drivers and bytes received.
+    private static final List<String[]> reducerLoads = new ArrayList<>();
+
+    // what the merge server reported writing to an export: its rows, chunks
+    // and revenue, or null if it didn't report one.
+    private static String[] exportReport;
+
+    public static void main(String[] args)
+        throws IOException, InterruptedException, ExecutionException {
+
+        boolean incremental;
+        boolean progressive;
+        boolean export;
+        double sampleRate;
+        SpatialGrid grid = null;
+        List<String> engineFlags = new ArrayList<>();
+        List<String> reducerEngineFlags = new ArrayList<>();
+        try {
+            System.err.println("Usage: LocalCluster " + USAGE);
+            Flags flags = new Flags(args);
+            flags.allow("incremental", "engine", "grid", "progressive", "sample", "skew", "max-drivers", "export",
+                "timeout");
+            if (flags.positional().size() > 0)
+                rowsPerMapper = Integer.parseInt(flags.positional().get(0));
+            if (flags.positional().size() > 1)
+                basePort = Integer.parseInt(flags.positional().get(1));
+            incremental = flags.getBoolean("incremental", false);
+            progressive = flags.getBoolean("progressive", false);
+            export = flags.getBoolean("export", false);
+            sampleRate = flags.getDouble("sample", 1.0);
+            skew = flags.getDouble("skew", skew);
+            timeoutSeconds = flags.getInt("timeout", timeoutSeconds);
+            if (flags.has("max-drivers"))
+                reducerOptions.add("--max-drivers=" + flags.getInt("max-drivers", 0));
+            if (progressive && export)
+                throw new IllegalArgumentException("progressive runs only forward the top k drivers");
+            if (incremental && (progressive || sampleRate < 1))
+                throw new IllegalArgumentException("incremental runs always read every row");
+
+            if ("spatial".equals(flags.getString("engine", "driver"))) {
+                String gridSize = flags.getString("grid", SpatialGrid.DEFAULT_SIZE);
+                grid = SpatialGrid.parse(gridSize);
+                engineFlags = Arrays.asList("--engine=spatial", "--grid=" + gridSize);
+                reducerEngineFlags = Arrays.asList("--engine=spatial");
+                if (incremental || progressive || export)
+                    throw new IllegalArgumentException("the spatial engine only runs as a plain job");
+            }
+        }
+        catch (Exception e) {
+            System.out.println("Difficulty parsing arguments: " + e.getMessage());
+            System.out.println("Correct usage: " + USAGE);
+            return;
+        }
+
+        workDir.mkdirs();
+
+        /* stage 1: generate a dataset for each mapper */
+
+        long generateStart = System.currentTimeMillis();
+        File[] month1 = generateDatasets("month-1", 42);
+        File[] month2 = incremental ? generateDatasets("month-2", 4242) : null;
+        System.out.println("Generated " + ((incremental ? 4 : 2) * rowsPerMapper) + " rows in "
+            + (System.currentTimeMillis() - generateStart) + " ms");
+
+        /* stage 2: run the job(s) & check the results */
+
+        String outputName = new File(workDir, "output").getPath();
+        boolean failed;
+
+        if (progressive || sampleRate < 1) {
+
+            // the merger publishes estimates while the mappers are still
+            // reading, and the final one is exact unless rows were sampled.
+            List<String> mapperFlags = new ArrayList<>();
+            List<String> serverFlags = new ArrayList<>();
+            if (progressive) {
+                mapperFlags.add("--progress-interval=1");
+                serverFlags.add("--progressive");
+            }
+            mapperFlags.add("--sample=" + sampleRate);
+
+            failed = runJob(month1[0].getPath(), month1[1].getPath(), 2L * rowsPerMapper, outputName,
+                serverFlags, serverFlags, mapperFlags);
+            if (sampleRate < 1)
+                System.out.println("Skipping the exact check, since only a sample of the rows was read.");
+            else
+                failed |= !checkResult(outputName + ".txt", month1);
+        }
+        else if (export) {
+
+            // every driver has to reach the merger to be exported.
+            // small chunks, so that several record batches are read back.
+            File exportFile = new File(workDir, "drivers.arrow");
+            exportFile.delete();
+            failed = runJob(month1[0].getPath(), month1[1].getPath(), 2L * rowsPerMapper, outputName,
+                Arrays.asList("--export=" + exportFile.getPath(), "--chunk-rows=" + EXPORT_CHUNK_ROWS),
+                Arrays.asList("--forward-all"), engineFlags);
+            failed |= !checkResult(outputName + ".txt", month1);
+            failed |= !checkExport(exportFile, month1);
+        }
+        else if (!incremental) {
+
+            failed = runJob(month1[0].getPath(), month1[1].getPath(), 2L * rowsPerMapper, outputName,
+                engineFlags, reducerEngineFlags, engineFlags);
+            if (grid != null)
+                failed |= !checkCellResult(outputName + ".txt", grid, month1);
+            else
+                failed |= !checkResult(outputName + ".txt", month1);
+        }
+        else {
+
+            // the first job builds the snapshot from scratch, and the second
+            // is given both months but only processes the new files.
+            File snapshot = new File(workDir, "drivers.snapshot");
+            snapshot.delete();
+            String snapshotFlag = "--snapshot=" + snapshot.getPath();
+            List<String> reducerFlags = Arrays.asList("--forward-all");
+            List<String> mapperFlags = Arrays.asList(snapshotFlag);
+
+            failed = runJob(month1[0].getPath(), month1[1].getPath(), 2L * rowsPerMapper, outputName,
+                Arrays.asList(snapshotFlag), reducerFlags, mapperFlags);
+            failed |= !checkResult(outputName + ".txt", month1);
+            failed |= !checkSnapshotInputs(snapshot, month1);
+
+            failed |= runJob(month1[0].getPath() + "," + month2[0].getPath(),
+                month1[1].getPath() + "," + month2[1].getPath(), 2L * rowsPerMapper, outputName,
+                Arrays.asList(snapshotFlag), reducerFlags, mapperFlags);
+            failed |= !checkResult(outputName + ".txt", month1[0], month1[1], month2[0], month2[1]);
+            failed |= !checkSnapshotInputs(snapshot, month1[0], month1[1], month2[0], month2[1]);
+        }
+
+        System.out.println(failed ? "Local cluster run FAILED." : "Local cluster run PASSED.");
+        System.exit(failed ? 1 : 0);
+    }
+
+    /*
+     * Generates a dataset for each mapper. Both files draw from the same
+     * drivers, so the reducers have to combine the records of each driver
+     * from both mappers.
+     */
+    private static File[] generateDatasets(String name, long seed)
+        throws IOException, InterruptedException, ExecutionException {
+
+        File[] datasets = new File[2];
+        for (int mapper = 0; mapper < 2; mapper++) {
+
+            datasets[mapper] = new File(workDir, "mapper-" + (mapper + 1) + "-" + name + ".csv.bz2");
+
+            TripDataGenerator generator = new TripDataGenerator(rowsPerMapper);
+            generator.setDrivers(numDrivers);
+            generator.setSkew(skew);
+            generator.setSeed(seed + mapper);
+            for (String rule : TripDataGenerator.RULES)
+                generator.setInvalidFraction(rule, 0.002);
+            generator.write(datasets[mapper].getPath());
+        }
+        return datasets;
+    }
+
+    /*
+     * Runs a single job on the cluster and prints its timings. Returns whether
+     * any of the nodes failed. If the job doesn't finish in time, every node
+     * still running is killed and the whole run fails.
+     */
+    private static boolean runJob(String input1, String input2, long rows, String outputName,
+        List<String> mergeFlags, List<String> reducerFlags, List<String> mapperFlags)
+        throws IOException, InterruptedException {
+
+        String mergePort = String.valueOf(basePort);
+        String reducerPort1 = String.valueOf(basePort + 1);
+        String reducerPort2 = String.valueOf(basePort + 2);
+
+        synchronized (stageTimings) {
+            stageTimings.clear();
+            reducerLoads.clear();
+            exportReport = null;
+            jobStart = System.currentTimeMillis();
+            firstRowTime = -1;
+        }
+
+        List<Process> processes = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        long[] finishTimes = new long[5];
+
+        CountDownLatch mergeReady = new CountDownLatch(1);
+        start(processes, names, "merge", mergeReady, "Server is listening on port",
+            "merge", with(mergeFlags, mergePort, outputName));
+        await(mergeReady, "merge");
+
+        List<String> reducerArgs = new ArrayList<>(reducerFlags);
+        reducerArgs.addAll(reducerOptions);
+
+        CountDownLatch reducersReady = new CountDownLatch(2);
+        start(processes, names, "reducer-1", reducersReady, "Server is running on port number",
+            "reducer", with(reducerArgs, reducerPort1, "localhost", mergePort));
+        start(processes, names, "reducer-2", reducersReady, "Server is running on port number",
+            "reducer", with(reducerArgs, reducerPort2, "localhost", mergePort));
+        await(reducersReady, "reducers");
+
+        start(processes, names, "mapper-1", null, null,
+            "mapper", with(mapperFlags, "localhost", reducerPort1, "localhost", reducerPort2, input1));
+        start(processes, names, "mapper-2", null, null,
+            "mapper", with(mapperFlags, "localhost", reducerPort1, "localhost", reducerPort2, input2));
+
+        // wait for the mappers first, then the layers downstream of them.
+        boolean failed = false;
+        long deadline = jobStart + TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        for (int i = processes.size() - 1; i >= 0; i--) {
+
+            if (!processes.get(i).waitFor(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS)) {
+                System.out.println(names.get(i) + " didn't finish within " + timeoutSeconds + " s, killing the job.");
+                for (Process process : processes)
+                    process.destroyForcibly();
+                for (Process process : processes)
+                    process.waitFor();
+                System.out.println("Local cluster run FAILED.");
+                System.exit(1);
+            }
+            int exitCode = processes.get(i).exitValue();
+            finishTimes[i] = System.currentTimeMillis() - jobStart;
+            if (exitCode != 0) {
+                System.out.println(names.get(i) + " exited with code " + exitCode);
+                failed = true;
+            }
+        }
+        long jobTime = System.currentTimeMillis() - jobStart;
+
+        System.out.println();
+        System.out.println("Stage timings:");
+        synchronized (stageTimings) {
+            for (String timing : stageTimings)
+                System.out.println("  " + timing);
+        }
+        printReducerLoads();
+        System.out.println("Process finish times (since job start):");
+        for (int i = 0; i < processes.size(); i++)
+            System.out.println(String.format(Locale.ROOT, "  %-10s %8d ms", names.get(i), finishTimes[i]));
+        synchronized (stageTimings) {
+            if (firstRowTime >= 0)
+                System.out.println("Time to first row: " + firstRowTime + " ms");
+        }
+        System.out.println(String.format(Locale.ROOT, "End-to-end job time: %d ms (%.0f rows/s)",
+            jobTime, rows * 1000.0 / Math.max(jobTime, 1)));
+
+        return failed;
+    }
+
+    /*
+     * Prints the drivers and bytes each reducer received, and how far the
+     * busiest reducer is above the average (1.00 is perfectly balanced).
+     */
+    private static void printReducerLoads() {
+
+        synchronized (stageTimings) {
+
+            if (reducerLoads.isEmpty())
+                return;
+
+            long maxDrivers = 0, maxBytes = 0, totalDrivers = 0, totalBytes = 0;
+            System.out.println("Reducer load:");
+            for (String[] load : reducerLoads) {
+
+                long drivers = Long.parseLong(load[1]);
+                long bytes = Long.parseLong(load[3]);
+                System.out.println(String.format(Locale.ROOT, "  %-10s %8d drivers (%s partial) %12d bytes",
+                    load[0], drivers, load[2], bytes));
+
+                maxDrivers = Math.max(maxDrivers, drivers);
+                maxBytes = Math.max(maxBytes, bytes);
+                totalDrivers += drivers;
+                totalBytes += bytes;
+            }
+
+            int reducers = reducerLoads.size();
+            System.out.println(String.format(Locale.ROOT, "  imbalance (max/mean): drivers %.2f, bytes %.2f",
+                maxDrivers * reducers / (double) Math.max(totalDrivers, 1),
+                maxBytes * reducers / (double) Math.max(totalBytes, 1)));
+        }
+    }
+
+    /*
+     * Appends optional flags to a node's positional arguments.
+     */
+    private static List<String> with(List<String> flags, String... positional) {
+
+        List<String> args = new ArrayList<>(Arrays.asList(positional));
+        args.addAll(flags);
+        return args;
+    }
+
+    /*
+     * Starts a node of the cluster in a child JVM. If a readiness message is
+     * given, the latch is counted down once the child prints it.
+     */
+    private static void start(List<Process> processes, List<String> names, String name,
+        CountDownLatch ready, String readyMessage, String node, List<String> args)
+        throws IOException {
+
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(startupOptions(name));
+        command.add("-cp");
+        command.add(classPath());
+        command.add(Launcher.class.getName());
+        command.add(node);
+        command.addAll(args);
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+
+        Thread pump = new Thread(() -> pumpOutput(name, process, ready, readyMessage));
+        pump.setDaemon(true);
+        pump.start();
+
+        processes.add(process);
+        names.add(name);
+    }
+
+    /*
+     * Echoes the output of a child with its name as a prefix, and picks out
+     * readiness and stage timing messages.
+     */
+    private static void pumpOutput(String name, Process process, CountDownLatch ready, String readyMessage) {
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+
+                System.out.println("[" + name + "] " + line);
+
+                if (ready != null && line.startsWith(readyMessage))
+                    ready.countDown();
+
+                Matcher matcher = STAGE_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    synchronized (stageTimings) {
+                        stageTimings.add(String.format(Locale.ROOT, "%-10s %-9s %8s ms",
+                            name, matcher.group(1), matcher.group(2)));
+                        if ("first-row".equals(matcher.group(1)) && firstRowTime < 0)
+                            firstRowTime = System.currentTimeMillis() - jobStart;
+                    }
+                }
+
+                Matcher load = LOAD_PATTERN.matcher(line);
+                if (load.find()) {
+                    synchronized (stageTimings) {
+                        reducerLoads.add(new String[] { name, load.group(1), load.group(2), load.group(3) });
+                    }
+                }
+
+                Matcher exported = EXPORT_PATTERN.matcher(line);
+                if (exported.find()) {
+                    synchronized (stageTimings) {
+                        exportReport = new String[] { exported.group(1), exported.group(2), exported.group(3) };
+                    }
+                }
+            }
+        }
+        catch (IOException e) {
+            System.out.println("Lost output of " + name + ": " + e.getMessage());
+        }
+    }
+
+    /*
+     * The class data sharing and JIT options this JVM was started with, for a
+     * child. A class list being dumped gets a file of its own per child, named
+     * after the child, since they all run at once.
+     */
+    private static List<String> startupOptions(String name) {
+
+        List<String> options = new ArrayList<>();
+        for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (option.startsWith("-XX:DumpLoadedClassList="))
+                options.add(option + "." + name);
+            else if (option.startsWith("-Xshare:") || option.startsWith("-XX:SharedArchiveFile=")
+                || option.startsWith("-XX:TieredStopAtLevel="))
+                options.add(option);
+        }
+        return options;
+    }
+
+    private static void await(CountDownLatch latch, String name)
+        throws InterruptedException {
+
+        if (!latch.await(60, TimeUnit.SECONDS))
+            throw new IllegalStateException(name + " did not start in time");
+    }
+
+    /*
+     * Rebuilds the classpath of the current process, which under exec:java
+     * lives in the project class loader rather than 'java.class.path'.
+     */
+    private static String classPath() {
+
+        StringBuilder path = new StringBuilder();
+        ClassLoader loader = LocalCluster.class.getClassLoader();
+
+        while (loader != null) {
+            if (loader instanceof URLClassLoader) {
+                for (URL url : ((URLClassLoader) loader).getURLs()) {
+                    if (!"file".equals(url.getProtocol()))
+                        continue;
+                    if (path.length() > 0)
+                        path.append(File.pathSeparator);
+                    path.append(new File(url.getPath()).getPath());
+                }
+            }
+            loader = loader.getParent();
+        }
+
+        if (path.length() == 0)
+            return System.getProperty("java.class.path");
+
+        return path.toString();
+    }
+
+    /*
+     * Checks that the snapshot lists exactly the files the mappers read, with
+     * their sizes and modification times, so that the next incremental run
+     * neither skips nor re-reads any of them.
+     */
+    private static boolean checkSnapshotInputs(File snapshotFile, File... datasets)
+        throws IOException {
+
+        List<String> paths = new ArrayList<>();
+        for (File dataset : datasets)
+            paths.add(dataset.getPath());
+
+        HashSet<InputFile> expected = new HashSet<>(InputFile.of(paths));
+        HashSet<InputFile> actual;
+        try (DriverSnapshot snapshot = DriverSnapshot.open(snapshotFile.getPath())) {
+            actual = new HashSet<>(snapshot.getInputFiles());
+        }
+
+        if (!expected.equals(actual)) {
+            System.out.println("Snapshot input files " + actual + " don't match the files read " + expected);
+            return false;
+        }
+        System.out.println("Snapshot input files match the " + expected.size() + " file(s) read.");
+        return true;
+    }
+
+    /*
+     * Recomputes the top k in a single thread straight from the datasets, and
+     * compares it against the merge server's output file.
+     */
+    private static boolean checkResult(String outputFile, File... datasets)
+        throws IOException {
+
+        HashMap<String, Driver> expectedDrivers = aggregateDrivers(datasets);
+        PriorityQueue<Driver> expected = new PriorityQueue<>();
+        for (Driver driver : expectedDrivers.values()) {
+            expected.add(driver);
+            if (expected.size() > k)
+                expected.poll();
+        }
+
+        List<Matcher> actual = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(outputFile))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = RESULT_PATTERN.matcher(line);
+                if (matcher.find())
+                    actual.add(matcher);
+            }
+        }
+
+        // both lists are in ascending order of $/min, so every rank must have
+        // the expected rate. Drivers with tied rates may legitimately come out
+        // in either order, so another id is fine as long as that driver's own
+        // totals match the single-threaded ones, and its rate is the same.
+        boolean passed = actual.size() == expected.size();
+        int rank = 0;
+        while (!expected.isEmpty() && passed) {
+
+            Driver driver = expected.poll();
+            Matcher line = actual.get(rank);
+            Driver reference = expectedDrivers.get(line.group(1));
+
+            boolean sameRate = close(driver.getMoneyPerMinute(), Float.parseFloat(line.group(5)));
+            boolean sameTotals = reference != null
+                && reference.getNumTrips() == Integer.parseInt(line.group(2))
+                && reference.getNumTaxis() == Integer.parseInt(line.group(3))
+                && close(reference.getTotalAmount(), Float.parseFloat(line.group(4)))
+                && close(reference.getMoneyPerMinute(), driver.getMoneyPerMinute());
+
+            if (!sameRate || !sameTotals) {
+                System.out.println("Mismatch at rank " + rank + ": expected " + driver + ", got " + line.group()
+                    + (reference == null ? "" : " (single-threaded: " + reference + ")"));
+                passed = false;
+            }
+            rank++;
+        }
+
+        System.out.println("Correctness check against a single-threaded run: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    /*
+     * Whether two float totals are the same, allowing for them being summed
+     * in a different order.
+     */
+    private static boolean close(float expected, float actual) {
+        return Math.abs(expected - actual) <= 1e-4f * Math.max(1, Math.abs(expected));
+    }
+
+    /*
+     * Aggregates every driver of the datasets in a single thread.
+     */
+    private static HashMap<String, Driver> aggregateDrivers(File... datasets)
+        throws IOException {
+
+        HashMap<String, Driver> drivers = new HashMap<>();
+        for (File dataset : datasets) {
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(MapperClient.openDataset(dataset.getPath())))) {
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        Trip trip = new Trip(line);
+                        drivers.computeIfAbsent(trip.getDriver(), Driver::new).reportTrip(trip);
+                    }
+                    catch (IllegalArgumentException e) {
+                        // invalid lines are skipped, just like in the mappers.
+                    }
+                }
+            }
+        }
+        return drivers;
+    }
+
+    /*
+     * Checks what the merge server reported writing to the export against the
+     * datasets: exactly one row for each driver, in as many chunks as that
+     * takes, with the same total revenue, and a file that holds them. The
+     * file's contents are checked by ArrowDriverWriterTest, with Arrow's own
+     * reader.
+     */
+    private static boolean checkExport(File exportFile, File... datasets)
+        throws IOException {
+
+        HashMap<String, Driver> expectedDrivers = aggregateDrivers(datasets);
+        double expectedRevenue = 0;
+        for (Driver driver : expectedDrivers.values())
+            expectedRevenue += driver.getTotalAmount();
+        long expectedChunks = (expectedDrivers.size() + EXPORT_CHUNK_ROWS - 1) / EXPORT_CHUNK_ROWS;
+
+        String[] report;
+        synchronized (stageTimings) {
+            report = exportReport;
+        }
+        if (report == null || !exportFile.isFile() || exportFile.length() == 0) {
+            System.out.println("The merge server didn't write " + exportFile);
+            System.out.println("Export check against a single-threaded run: FAILED");
+            return false;
+        }
+
+        long rows = Long.parseLong(report[0]);
+        long chunks = Long.parseLong(report[1]);
+        double revenue = Double.parseDouble(report[2]);
+
+        // the drivers' totals are floats summed in different orders, so
+        // allow for their rounding.
+        boolean sameRevenue = Math.abs(revenue - expectedRevenue) <= 1e-5 * Math.max(1, Math.abs(expectedRevenue));
+        boolean passed = rows == expectedDrivers.size() && chunks == expectedChunks && sameRevenue;
+
+        System.out.println(String.format(Locale.ROOT,
+            "Export has %d rows in %d chunk(s) and %.2f revenue, in %d bytes; "
+                + "expected %d drivers in %d chunk(s) and %.2f revenue.",
+            rows, chunks, revenue, exportFile.length(), expectedDrivers.size(), expectedChunks, expectedRevenue));
+        System.out.println("Export check against a single-threaded run: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+
+    /*
+     * Recomputes the per-cell stats in a single thread, and compares the top k
+     * cells against the merge server's output file.
+     */
+    private static boolean checkCellResult(String outputFile, SpatialGrid grid, File... datasets)
+        throws IOException {
+
+        CellStats expected = new CellStats(grid.numCells());
+        for (File dataset : datasets) {
+
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(MapperClient.openDataset(dataset.getPath())))) {
+
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        Trip trip = new Trip(line);
+                        expected.reportTrip(grid.cellOf(trip.getPickupLongitude(), trip.getPickupLatitude()),
+                            grid.cellOf(trip.getDropoffLongitude(), trip.getDropoffLatitude()),
+                            trip.getAmount(), trip.getTripDuration());
+                    }
+                    catch (IllegalArgumentException e) {
+                        // invalid lines are skipped, just like in the mappers.
+                    }
+                }
+            }
+        }
+
+        int[] expectedCells = expected.topCells(k);
+        List<Integer> actualCells = new ArrayList<>();
+        List<Double> actualRevenue = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(outputFile))) {
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = CELL_PATTERN.matcher(line);
+                if (matcher.find()) {
+                    actualCells.add(Integer.parseInt(matcher.group(1)));
+                    actualRevenue.add(Double.parseDouble(matcher.group(2)));
+                }
+            }
+        }
+
+        boolean passed = actualCells.size() == expectedCells.length;
+        for (int rank = 0; passed && rank < expectedCells.length; rank++) {
+
+            int cell = expectedCells[rank];
+            if (cell != actualCells.get(rank) || Math.abs(expected.getRevenue(cell) - actualRevenue.get(rank)) > 0.01) {
+                System.out.println("Mismatch at rank " + rank + ": expected cell " + cell + " with revenue "
+                    + expected.getRevenue(cell) + ", got cell " + actualCells.get(rank)
+                    + " with revenue " + actualRevenue.get(rank));
+                passed = false;
+            }
+        }
+
+        System.out.println("Correctness check against a single-threaded run: " + (passed ? "PASSED" : "FAILED"));
+        return passed;
+    }
+}
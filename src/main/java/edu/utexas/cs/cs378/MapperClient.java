@@ -4,24 +4,34 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
+import java.util.SplittableRandom;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.io.Output;
-import com.esotericsoftware.kryo.io.Input;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.compress.compressors.CompressorException;
 import org.apache.commons.compress.compressors.CompressorInputStream;
 import org.apache.commons.compress.compressors.CompressorStreamFactory;
+import org.apache.commons.compress.utils.CountingInputStream;
+import org.apache.commons.compress.utils.InputStreamStatistics;
 
 public class MapperClient {
     
@@ -30,10 +40,64 @@ public class MapperClient {
     private static String hostName2;
     private static int hostPort2;
     private static BlockingQueue<String> messageQueue;
-    private static ConcurrentHashMap<String, Driver> driverMappings;
+    private static DriverTable[] driverTables;
     private final static int NUM_WRITERS = Math.max(Runtime.getRuntime().availableProcessors() - 1, 1);
-    private static String datasetName = "taxi-data-sorted-small.csv.bz2";
-    private static ArrayList<Driver> drivers;
+
+    // the lines the reader may get ahead of the workers, which bounds both
+    // the memory of the queue and how stale a progress update can be.
+    private final static int QUEUE_CAPACITY = 1 << 16;
+    private static List<String> datasetNames = Arrays.asList("taxi-data-sorted-small.csv.bz2");
+    private static List<InputFile> inputFiles;
+    private static ArrayList<ArrayList<Driver>> partitions;
+    private static final String USAGE = "<host name 1> <host port 1> <host name 2> <host port 2> "
+        + "<file name(s)> [--snapshot=<file>] [--engine=spatial [--grid=<rows>x<cols>]] "
+        + "[--progress-interval=<seconds>] [--sample=<rate>] [--skew-sample=<rows>] [--hot-share=<fraction>]";
+
+    // the grid of the spatial engine, or null when aggregating by driver.
+    private static SpatialGrid grid;
+    private static CellStats[] workerCells;
+    private static CellStats cells;
+
+    // progressive mode: how often partial results are sent to the reducers
+    // (0 to only send the final result), and the fraction of rows to process.
+    private static int progressInterval = 0;
+    private static double sampleRate = 1.0;
+    private static Kryo progressKryo;
+    private static Socket[] progressSockets;
+    private static Output[] progressOutputs;
+
+    // tells this mapper's updates apart from the other mapper's at the merge
+    // server, which gets them through both reducers.
+    private static final long mapperId = new SplittableRandom().nextLong();
+
+    // how far into the input the reader is. Only written by the reader thread.
+    // 'bytesBeforeRow' is how far into the (compressed) input the last sampled
+    // row starts, so it doesn't count input that's only buffered or queued.
+    private static volatile long rowsRead = 0;
+    private static volatile long rowsSampled = 0;
+    private static volatile long bytesBeforeRow = 0;
+    private static long bytesDone = 0;
+
+    // the most data a bzip2 block holds, before compression.
+    private static final int BZIP2_BLOCK_BYTES = 900000;
+
+    // the rows the workers are done with, valid or not.
+    private static final AtomicLong rowsProcessed = new AtomicLong();
+    private static final AtomicBoolean firstRowDone = new AtomicBoolean(false);
+    private static long totalBytes = 0;
+    private static final SplittableRandom sampler = new SplittableRandom(42);
+
+    // the partition plan: the drivers with at least 'hotShare' of the first
+    // 'skewSample' rows (or of all rows, for less input) are hot, and their
+    // trips are salted across reducers. Null until the plan is made; the
+    // workers don't wait for it, and the trips from before it are combined
+    // with the salted ones when the drivers are partitioned.
+    private static int skewSample = 50000;
+    private static double hotShare = 0.01;
+    private static IdDictionary sampledIds = new IdDictionary(1 << 12);
+    private static int[] sampledDrivers = new int[1 << 12];
+    private static long rowsCounted = 0;
+    private static volatile HashSet<String> hotDrivers;
 
     /*
      * 
@@ -41,22 +105,40 @@ public class MapperClient {
     public static void main(String[] args) 
         throws InterruptedException, FileNotFoundException, CompressorException, IOException {
 
-        if (args.length != 5) {
+        Flags flags = new Flags(args);
+        if (flags.positional().size() != 5) {
             System.out.println("Incorrect Argument Count.");
-            System.out.println("Correct usage: <host name 1> <host port 1> <host name 2> <host port 2> <file name>");
+            System.out.println("Correct usage: " + USAGE);
             return;
         }
         try {
-			System.err.println("Usage: MapperClient <host name 1> <host port 1> <host name 2> <host port 2> <file name>");
-			hostName1 = args[0];
-			hostPort1 = Integer.parseInt(args[1]);
-            hostName2 = args[2];
-			hostPort2 = Integer.parseInt(args[3]);
-            datasetName = args[4];
+			System.err.println("Usage: MapperClient " + USAGE);
+            flags.allow("engine", "grid", "progress-interval", "sample", "skew-sample", "hot-share", "snapshot");
+			hostName1 = flags.positional().get(0);
+			hostPort1 = Integer.parseInt(flags.positional().get(1));
+            hostName2 = flags.positional().get(2);
+			hostPort2 = Integer.parseInt(flags.positional().get(3));
+            datasetNames = Arrays.asList(flags.positional().get(4).split(","));
+            if ("spatial".equals(flags.getString("engine", "driver")))
+                grid = SpatialGrid.parse(flags.getString("grid", SpatialGrid.DEFAULT_SIZE));
+            progressInterval = flags.getInt("progress-interval", 0);
+            sampleRate = flags.getDouble("sample", 1.0);
+            if (progressInterval > 0 && grid != null)
+                throw new IllegalArgumentException("progressive mode only supports the driver engine");
+            if (sampleRate <= 0 || sampleRate > 1)
+                throw new IllegalArgumentException("sample rate must be in (0, 1]");
+            skewSample = flags.getInt("skew-sample", skewSample);
+            hotShare = flags.getDouble("hot-share", hotShare);
+
+            // in incremental mode, skip the files that are already in the snapshot.
+            if (flags.has("snapshot")) {
+                datasetNames = DriverSnapshot.newInputFiles(flags.getString("snapshot", null), datasetNames);
+                System.out.println(datasetNames.size() + " new file(s) to process since the last snapshot.");
+            }
 		}
         catch (Exception e) {
             System.out.println("Difficulty parsing arguments: " + e.getMessage());
-            System.out.println("Correct usage: <host name 1> <host port 1> <host name 2> <host port 2> <file name>");
+            System.out.println("Correct usage: " + USAGE);
             return;
         }
 
@@ -64,21 +146,86 @@ public class MapperClient {
 
             /* stage 1: reading the data */
 
-            messageQueue = new LinkedBlockingQueue<String>();
-            driverMappings = new ConcurrentHashMap<String, Driver>();
+            long mapStart = System.currentTimeMillis();
+            messageQueue = new LinkedBlockingQueue<String>(QUEUE_CAPACITY);
+            driverTables = new DriverTable[NUM_WRITERS];
+            for (int i = 0; i < NUM_WRITERS; i++)
+                driverTables[i] = new DriverTable(2);
+            if (grid != null) {
+                workerCells = new CellStats[NUM_WRITERS];
+                for (int i = 0; i < NUM_WRITERS; i++)
+                    workerCells[i] = new CellStats(grid.numCells());
+            }
+
+            // note what the files look like before reading them, for the snapshot.
+            inputFiles = InputFile.of(datasetNames);
+            for (InputFile inputFile : inputFiles)
+                totalBytes += inputFile.getSize();
+
+            // progressive updates are combined by the reducers, which rank
+            // them right away, so drivers are never split in that mode.
+            if (grid != null || progressInterval > 0 || skewSample <= 0)
+                hotDrivers = new HashSet<>();
+
+            // in progressive mode, send partial results while still reading.
+            ScheduledExecutorService progressTimer = null;
+            if (progressInterval > 0) {
+                connectForProgress();
+                progressTimer = Executors.newSingleThreadScheduledExecutor();
+                progressTimer.scheduleAtFixedRate(MapperClient::sendPartialProgress,
+                    progressInterval, progressInterval, TimeUnit.SECONDS);
+            }
 
             System.out.println("Creating " + NUM_WRITERS + " worker threads...");
             ArrayList<Thread> workers = createWorkers(NUM_WRITERS);
-            System.out.println("Reading lines from " + datasetName + "...");
-            readLines(datasetName);
+            for (String datasetName : datasetNames) {
+                System.out.println("Reading lines from " + datasetName + "...");
+                readLines(datasetName);
+            }
+
+            // with less input than the sample size, plan as soon as it ends.
+            if (hotDrivers == null)
+                planHotDrivers();
+
+            // tell each of the writers to stop reading.
+            for (int i = 0; i < NUM_WRITERS; i++)
+                messageQueue.put("EOF");
             waitForWorkers(workers);
 
-            drivers = new ArrayList<>(driverMappings.values());
+            partitions = DriverTable.partition(driverTables);
+            int numDrivers = countDrivers(partitions);
 
-            System.out.println("Done processing data. Found " + drivers.size() + " unique drivers.");
+            if (grid != null) {
+                cells = new CellStats(grid.numCells());
+                for (CellStats workerCell : workerCells)
+                    cells.add(workerCell);
+                System.out.println("Done processing data. Aggregated trips over " + grid.numCells() + " cells.");
+            }
+            else {
+                System.out.println("Done processing data. Found " + numDrivers + " unique drivers ("
+                    + hotDrivers.size() + " hot).");
+                System.out.println("Interned " + DriverTable.describe(driverTables));
+            }
+            if (sampleRate < 1)
+                System.out.println("Sampled " + rowsSampled + " of " + rowsRead + " rows.");
+            System.out.println("Stage map took " + (System.currentTimeMillis() - mapStart) + " ms");
+
+            // in progressive mode, the final result is just the last update.
+            if (progressTimer != null) {
+                progressTimer.shutdown();
+                progressTimer.awaitTermination(1, TimeUnit.MINUTES);
+                sendProgress(true);
+                for (int i = 0; i < progressSockets.length; i++) {
+                    progressOutputs[i].close();
+                    progressSockets[i].close();
+                }
+                System.out.println("Done sending final progress update to reducer servers!");
+                return;
+            }
 
             /* stage 2: send the data to the first layer of reducers */
 
+            long shuffleStart = System.currentTimeMillis();
             System.out.println("Connecting to servers to transmit data ... ");
 
             Socket reducerSocket1 = new Socket(hostName1, hostPort1);
@@ -94,6 +241,7 @@ public class MapperClient {
             thread2.join();
             
             System.out.println("Done sending driver data to reducer server!");
+            System.out.println("Stage shuffle took " + (System.currentTimeMillis() - shuffleStart) + " ms");
         }
         catch (Exception e) {
             System.out.println("Error: " + e.getMessage());
@@ -101,39 +249,157 @@ public class MapperClient {
 		}
     }
 
-    private static void sendDriverData(Socket socket, int start) 
+    private static void sendDriverData(Socket socket, int partition) 
         throws IOException {
 
-        // initialize new kryo object
-        Kryo kryo = new Kryo();
+        // borrow a kryo with all classes & derived datatypes registered. It
+        // goes back to the pool, and the socket is closed, however the
+        // write ends.
+        Kryo kryo = KryoPool.obtain();
+        try (Output outputStream = new Output(socket.getOutputStream())) {
+
+            // send the files we read first, for the merger to record in its
+            // snapshot, then our hot drivers, so that the reducer knows which
+            // drivers any mapper may have split.
+            kryo.writeObject(outputStream, new ArrayList<>(inputFiles));
+            kryo.writeObject(outputStream, hotDrivers);
+
+            // the spatial engine partitions by cell: send the cells this socket's
+            // reducer owns.
+            if (grid != null) {
+                kryo.writeObject(outputStream, cells.partition(partition, 2));
+            }
+
+            // send the drivers in this socket's partition, and mark the end.
+            for (Driver driver : partitions.get(partition)) {
+                kryo.writeObjectOrNull(outputStream, driver, Driver.class);
+            }
+            kryo.writeObjectOrNull(outputStream, null, Driver.class);
 
-        // register all classes & derived datatypes involved
-        kryo.register(Driver.class);
-        kryo.register(HashSet.class);
-        kryo.register(String.class);
+            // flush remaining data in the buffer.
+            outputStream.flush();
+        }
+        finally {
+            KryoPool.free(kryo);
+            socket.close();
+        }
+    }
+
+    /*
+     * Counts the driver of a row towards the partition plan, and makes the
+     * plan once enough rows were seen. Only called by the reader thread, so
+     * the id is cut out of the line without parsing the rest of it.
+     */
+    private static void sampleDriver(String line) {
+
+        int start = line.indexOf(',') + 1;
+        int end = line.indexOf(',', start);
+        if (start > 0 && end > start) {
+            int driver = sampledIds.idOf(line, start, end);
+            if (driver >= sampledDrivers.length)
+                sampledDrivers = Arrays.copyOf(sampledDrivers, Math.max(sampledDrivers.length * 2, driver + 1));
+            sampledDrivers[driver]++;
+        }
 
-        // get the input and output streams
-        Input inputStream = new Input(socket.getInputStream());
-        Output outputStream = new Output(socket.getOutputStream());
+        if (++rowsCounted >= skewSample)
+            planHotDrivers();
+    }
 
-        // send every other driver!
-        for (int i = 0; i < drivers.size(); i += 2) {
-            kryo.writeObject(outputStream, drivers.get(i));
+    /*
+     * Counts the distinct drivers of the partitions: the parts of a hot
+     * driver are in several of them.
+     */
+    private static int countDrivers(ArrayList<ArrayList<Driver>> partitions) {
+
+        int count = 0;
+        HashSet<String> partial = new HashSet<>();
+        for (ArrayList<Driver> partition : partitions) {
+            for (Driver driver : partition) {
+                if (!driver.isPartial())
+                    count++;
+                else
+                    partial.add(driver.getId());
+            }
         }
+        return count + partial.size();
+    }
 
-        // flush remaining data in the buffer.
-        outputStream.flush();
+    private static void planHotDrivers() {
 
-        // close open resources
-        inputStream.close();
-        outputStream.close();
-        socket.close();
+        HashSet<String> hot = new HashSet<>();
+        for (int driver = 0; driver < sampledDrivers.length; driver++) {
+            if (sampledDrivers[driver] > 0 && sampledDrivers[driver] >= hotShare * rowsCounted)
+                hot.add(sampledIds.getId(driver));
+        }
+
+        sampledDrivers = null;
+        sampledIds = null;
+        for (DriverTable table : driverTables)
+            table.setHotDrivers(hot);
+        hotDrivers = hot;
+        System.out.println("Found " + hot.size() + " hot driver(s) in the first " + rowsCounted + " rows.");
+    }
+
+    /*
+     * Opens the connections to the reducers for progressive mode.
+     */
+    private static void connectForProgress()
+        throws IOException {
+
+        progressKryo = KryoPool.obtain();
+
+        progressSockets = new Socket[] { new Socket(hostName1, hostPort1), new Socket(hostName2, hostPort2) };
+        progressOutputs = new Output[progressSockets.length];
+        for (int i = 0; i < progressSockets.length; i++)
+            progressOutputs[i] = new Output(progressSockets[i].getOutputStream());
+
+        System.out.println("Connections to 2/2 servers Established, sending progress every "
+            + progressInterval + " s ...");
+    }
+
+    private static void sendPartialProgress() {
+
+        try {
+            sendProgress(false);
+        }
+        catch (Exception e) {
+            System.out.println("Failed to send a progress update: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Sends each reducer a copy of all the partial drivers in its partition so
+     * far, along with how far into the input we are.
+     *
+     * The reader counts rows as it queues them, ahead of the workers, so the
+     * workers are given time to catch up with the counts first: the drivers
+     * sent then include at least every row the update claims. The bytes are
+     * taken before the rows, as the reader sets them before counting a row,
+     * so they never claim input from a row the workers may not have seen.
+     */
+    private static synchronized void sendProgress(boolean last)
+        throws IOException, InterruptedException {
+
+        long bytesRead = last ? totalBytes : bytesBeforeRow;
+        long read = rowsRead;
+        long sampled = rowsSampled;
+
+        while (rowsProcessed.get() < sampled)
+            Thread.sleep(1);
+
+        ArrayList<ArrayList<Driver>> partitions = DriverTable.partition(driverTables);
+
+        for (int i = 0; i < progressSockets.length; i++) {
+            progressKryo.writeObject(progressOutputs[i],
+                new ProgressUpdate(mapperId, read, sampled, bytesRead, totalBytes, last, partitions.get(i)));
+            progressOutputs[i].flush();
+        }
     }
 
     /*
      * Concurrently updates the mappings for each driver.
      */
-    private static void updateDriverMappings() 
+    private static void updateDriverMappings(int worker) 
         throws InterruptedException {
 
         while (true) {
@@ -151,25 +417,40 @@ public class MapperClient {
 
                 Trip trip = new Trip(line);
 
-                driverMappings.compute(trip.getDriver(), (id, driver) -> {
-
-                    if (driver == null) {
-                        driver = new Driver(id);
-                    }
-
-                    driver.reportTrip(trip);
+                // the spatial engine aggregates by cell, in this worker's own stats.
+                if (grid != null) {
+                    workerCells[worker].reportTrip(
+                        grid.cellOf(trip.getPickupLongitude(), trip.getPickupLatitude()),
+                        grid.cellOf(trip.getDropoffLongitude(), trip.getDropoffLatitude()),
+                        trip.getAmount(), trip.getTripDuration());
+                    reportFirstRow();
+                    continue;
+                }
 
-                    return driver;
-                });
+                driverTables[worker].reportTrip(trip);
+                reportFirstRow();
             }
             
             catch (IllegalArgumentException e) {
                 // if we're here, we found an invalid line.
             }
+            finally {
+                rowsProcessed.incrementAndGet();
+            }
         }
         return;
     }
 
+    /*
+     * Prints how long it took since the JVM started to process the first
+     * valid row, i.e. how long startup kept the mapper from doing any work.
+     */
+    private static void reportFirstRow() {
+
+        if (!firstRowDone.get() && firstRowDone.compareAndSet(false, true))
+            System.out.println("Stage first-row took " + Launcher.uptime() + " ms");
+    }
+
     private static void waitForWorkers(ArrayList<Thread> workers) {
 
         for (Thread worker : workers) {
@@ -187,9 +468,10 @@ public class MapperClient {
 
         ArrayList<Thread> workers = new ArrayList<>();
         for (int i = 0; i < numWorkers; i++) {
+            final int worker = i;
             Thread thread = new Thread(() -> {
                 try {
-                    updateDriverMappings();
+                    updateDriverMappings(worker);
                 } catch (InterruptedException e) {
                     System.out.println("Thread interrupted. Exiting...");
                     return;
@@ -209,24 +491,103 @@ public class MapperClient {
 	public static void readLines(String dataset) 
 		throws FileNotFoundException, CompressorException, IOException, InterruptedException {
 
-        // read the file specified from the user
-		FileInputStream fin = new FileInputStream(dataset);
-		BufferedInputStream bis = new BufferedInputStream(fin);
-		CompressorInputStream input = new CompressorStreamFactory().createCompressorInputStream(bis);
-		BufferedReader br = new BufferedReader(new InputStreamReader(input));
+        // read the file specified from the user, counting the bytes read
+        // from disk and the bytes they decompressed to.
+        CountingInputStream counter = new CountingInputStream(new FileInputStream(dataset));
+        InputStream in = openDataset(counter, dataset);
+        CountingInputStream decompressed = new CountingInputStream(in);
+		BufferedReader br = new BufferedReader(new InputStreamReader(decompressed));
 
 		String line;
 
-		// add each line into the message queue.
+        // the decompressor reads a whole block (and the buffer below it more)
+        // before handing out any of its rows, so the bytes read overshoot the
+        // rows read by up to a block. Instead, a row's offset in the
+        // decompressed data is scaled by the compression ratio of the blocks
+        // handed out before the current one. Within the first block, that's
+        // not known yet, so the block is taken to decompress to the most a
+        // bzip2 block holds, which understates rather than overstates. Plain
+        // text isn't scaled at all.
+        boolean compressed = in instanceof CompressorInputStream;
+        long rowStart = 0;
+        long consumed = 0;
+        double ratio = compressed ? 0 : 1;
+
+		// add each (sampled) line into the message queue.
 		while ((line = br.readLine()) != null) {
+
+            long nowConsumed = compressedBytes(in, counter);
+            if (nowConsumed != consumed) {
+                if (compressed && consumed > 0)
+                    ratio = (double) consumed / decompressed.getBytesRead();
+                consumed = nowConsumed;
+            }
+
+            rowsRead++;
+            long start = rowStart;
+            rowStart += line.length() + 1;
+            if (sampleRate < 1 && sampler.nextDouble() >= sampleRate)
+                continue;
+
+            double rowRatio = ratio > 0 ? ratio
+                : (double) consumed / Math.max(decompressed.getBytesRead(), BZIP2_BLOCK_BYTES);
+            bytesBeforeRow = bytesDone + Math.min((long) (start * rowRatio), consumed);
+            rowsSampled++;
+
+            // sample the drivers until the hot ones are planned, without
+            // holding the rows back from the workers.
+            if (hotDrivers == null)
+                sampleDriver(line);
 			messageQueue.put(line);
 		}
 
-        // tell each of the writers to stop reading.
-        for (int i = 0; i < NUM_WRITERS; i++)
-            messageQueue.put("EOF");
+        br.close();
+        bytesDone += new File(dataset).length();
 	}
 
+    /*
+     * The bytes of the file the decompressor took in so far, or that were
+     * read from disk for plain text.
+     */
+    private static long compressedBytes(InputStream in, CountingInputStream counter) {
+
+        if (in instanceof InputStreamStatistics)
+            return ((InputStreamStatistics) in).getCompressedCount();
+        return counter.getBytesRead();
+    }
+
+    /*
+     * Opens a dataset for reading. Compressed files are detected from their
+     * contents, and anything else is read as plain text. Concatenated streams
+     * (as written by 'TripDataGenerator') are read through to the end.
+     */
+    public static InputStream openDataset(String dataset)
+        throws FileNotFoundException, IOException {
+        return openDataset(new FileInputStream(dataset), dataset);
+    }
+
+    private static InputStream openDataset(InputStream file, String dataset)
+        throws IOException {
+
+        BufferedInputStream bis = new BufferedInputStream(file, 1 << 16);
+
+        try {
+            CompressorStreamFactory.detect(bis);
+        }
+        catch (CompressorException e) {
+            // not a known compression format, so read it as-is.
+            return bis;
+        }
+
+        try {
+            return new CompressorStreamFactory(true).createCompressorInputStream(bis);
+        }
+        catch (CompressorException e) {
+            bis.close();
+            throw new IOException("Could not decompress " + dataset, e);
+        }
+    }
+
     /*
      * Helper method to allocate a thread for the client for mappers.
      * Defines the offset for the current socket.
@@ -1,5 +1,6 @@
 package edu.utexas.cs.cs378;
 
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 
@@ -8,12 +9,24 @@ import java.io.IOException;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.io.Input;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class MergeServer {
@@ -23,24 +36,88 @@ public class MergeServer {
     private static PriorityQueue<Driver> topKDrivers;
     private static int k = 10;
 
+    // the full per-driver aggregates, only kept when writing a snapshot.
+    private static String snapshotFileName;
+    private static LinkedHashSet<InputFile> inputFiles = new LinkedHashSet<>();
+    private static List<InputFile> snapshotInputFiles = new ArrayList<>();
+    private static HashMap<String, Driver> allDrivers;
+
+    // when set, the merged drivers are served to queries after the job.
+    private static int servePort = -1;
+    private static InetAddress serveAddress;
+
+    // the grid of the spatial engine, or null when ranking drivers.
+    private static SpatialGrid grid;
+    private static CellStats cells;
+
+    // when set, every driver received is also written to a columnar file.
+    private static ArrowDriverWriter export;
+
+    // the reducers that sent all of their data.
+    private static AtomicInteger endsOfStream = new AtomicInteger();
+
+    // parts of hot drivers, combined by id before they're ranked.
+    private static HashMap<String, Driver> partialDrivers = new HashMap<>();
+
+    // in progressive mode, the latest update of each reducer, the progress
+    // of each mapper the last estimate claimed, and the ids of its top k, to
+    // report how stable the ranking is.
+    private static boolean progressive = false;
+    private static String progressFileName;
+    private static ProgressUpdate[] latestUpdates = new ProgressUpdate[2];
+    private static HashMap<Long, ProgressUpdate> publishedProgress = new HashMap<>();
+    private static HashSet<String> lastTopIds = new HashSet<>();
+    private static long mergeStart;
+    private static boolean firstEstimate = true;
+
+    private static final String USAGE = "<port number> <output file name> "
+        + "[--snapshot=<file> [--serve=<port> [--bind=<address>]]] [--engine=spatial [--grid=<rows>x<cols>]] "
+        + "[--progressive] [--export=<file.arrow> [--chunk-rows=<n>]]";
+
     public static void main(String[] args) 
         throws IOException, InterruptedException {
 
-        if (args.length != 2) {
+        Flags flags = new Flags(args);
+        if (flags.positional().size() != 2) {
 
             System.out.println("Incorrect Argument Count.");
-            System.out.println("Correct usage: <port number> <output file name>");
+            System.out.println("Correct usage: " + USAGE);
             return;
         }
 
         try {
-            System.err.println("Usage: MergeServer <port number> <output file name>");
-            portNumber = Integer.parseInt(args[0]);
-            outputFileName = args[1] + ".txt";
+            System.err.println("Usage: MergeServer " + USAGE);
+            flags.allow("snapshot", "serve", "bind", "engine", "grid", "progressive", "export", "chunk-rows");
+            portNumber = Integer.parseInt(flags.positional().get(0));
+            outputFileName = flags.positional().get(1) + ".txt";
+            progressFileName = flags.positional().get(1) + ".progress.txt";
+            snapshotFileName = flags.getString("snapshot", null);
+            servePort = flags.getInt("serve", -1);
+            if (servePort >= 0 && snapshotFileName == null)
+                throw new IllegalArgumentException("--serve only serves the drivers of a snapshot");
+            serveAddress = QueryServer.parseBindAddress(flags);
+            if ("spatial".equals(flags.getString("engine", "driver")))
+                grid = SpatialGrid.parse(flags.getString("grid", SpatialGrid.DEFAULT_SIZE));
+            progressive = flags.getBoolean("progressive", false);
+            if (progressive && (grid != null || snapshotFileName != null))
+                throw new IllegalArgumentException("progressive mode only ranks the drivers of a single job");
+            if (flags.has("export")) {
+                if (progressive || grid != null)
+                    throw new IllegalArgumentException("only the drivers of a plain job can be exported");
+                export = new ArrowDriverWriter(flags.getString("export", null),
+                    flags.getInt("chunk-rows", ArrowDriverWriter.DEFAULT_CHUNK_ROWS));
+            }
         }
         catch (Exception e) {
-            System.out.println("Incorrect Arguments.");
-            System.out.println("Correct usage: <port number> <output file name>");
+            System.out.println("Difficulty parsing arguments: " + e.getMessage());
+            System.out.println("Correct usage: " + USAGE);
+            return;
+        }
+
+        // in incremental mode, start from the drivers of the last snapshot.
+        if (snapshotFileName != null) {
+            allDrivers = loadSnapshot();
+            System.out.println("Loaded " + allDrivers.size() + " drivers from snapshot " + snapshotFileName);
         }
         
         // set up server
@@ -57,33 +134,108 @@ public class MergeServer {
         topKDrivers = new PriorityQueue<Driver>();
 
         // allocate and process data from the clients
-        Thread thread1 = allocateThreadForSocket(clientSocket1);
-        Thread thread2 = allocateThreadForSocket(clientSocket2);
+        mergeStart = System.currentTimeMillis();
+        Thread thread1 = allocateThreadForSocket(clientSocket1, 0);
+        Thread thread2 = allocateThreadForSocket(clientSocket2, 1);
         thread1.start();
         thread2.start();
         thread1.join();
         thread2.join();
 
+        // without every end of stream, the result can't be complete.
+        if (endsOfStream.get() < 2) {
+            System.out.println("Only " + endsOfStream.get() + "/2 reducers finished sending, giving up.");
+            if (export != null)
+                export.abort();
+            serverSocket.close();
+            System.exit(1);
+        }
+
+        // a file that's already in the snapshot would count its trips twice.
+        if (snapshotFileName != null) {
+            try {
+                DriverSnapshot.checkNotHeld(snapshotFileName, snapshotInputFiles, inputFiles);
+            }
+            catch (IOException e) {
+                System.out.println(e.getMessage() + ", giving up without writing the snapshot.");
+                if (export != null)
+                    export.abort();
+                serverSocket.close();
+                System.exit(1);
+            }
+        }
+
+        // rank the hot drivers, now that their parts are combined.
+        for (Driver driver : partialDrivers.values()) {
+            driver.setPartial(false);
+            if (export != null)
+                export.write(driver);
+            topKDrivers.add(driver);
+            if (topKDrivers.size() > k)
+                topKDrivers.poll();
+        }
+        if (partialDrivers.size() > 0)
+            System.out.println("Combined the parts of " + partialDrivers.size() + " hot driver(s).");
+
         System.out.println("Received all data from reducers. Writing final result to output file.");
+        System.out.println("Stage merge took " + (System.currentTimeMillis() - mergeStart) + " ms");
+
+        // persist the merged drivers, then rank all of them.
+        if (snapshotFileName != null) {
+
+            long snapshotStart = System.currentTimeMillis();
+            LinkedHashSet<InputFile> files = new LinkedHashSet<>(snapshotInputFiles);
+            files.addAll(inputFiles);
+            DriverSnapshot.write(snapshotFileName, allDrivers.values(), files);
+            System.out.println("Wrote " + allDrivers.size() + " drivers from " + files.size()
+                + " input file(s) to snapshot " + snapshotFileName);
+
+            for (Driver driver : allDrivers.values()) {
+                topKDrivers.add(driver);
+                if (topKDrivers.size() > k)
+                    topKDrivers.poll();
+            }
+            System.out.println("Stage snapshot took " + (System.currentTimeMillis() - snapshotStart) + " ms");
+        }
+
+        // finish the export. With a snapshot, it's every driver in it.
+        if (export != null) {
+
+            long exportStart = System.currentTimeMillis();
+            if (allDrivers != null) {
+                for (Driver driver : allDrivers.values())
+                    export.write(driver);
+            }
+            export.close();
+            System.out.println("Exported " + export.getRowCount() + " drivers in " + export.getChunkCount()
+                + " chunk(s) with " + export.getTotalRevenue() + " revenue to " + flags.getString("export", null));
+            System.out.println("Stage export took " + (System.currentTimeMillis() - exportStart) + " ms");
+        }
 
         // flush the results to an output file.
+        long flushStart = System.currentTimeMillis();
         flushResultsToDisk();
+        System.out.println("Stage flush took " + (System.currentTimeMillis() - flushStart) + " ms");
 
         // close the server socket.
         serverSocket.close();
 
         System.out.println("Successfully written to file: " + outputFileName);
         System.out.println("Done with all jobs!");
+
+        // keep serving the merged drivers until the process is stopped.
+        if (servePort >= 0 && allDrivers != null)
+            QueryServer.start(serveAddress, servePort, DriverIndex.fromDrivers(allDrivers.values()), snapshotFileName);
     }
 
     /*
      * Helper method to allocate a thread for the client.
      */
-    private static Thread allocateThreadForSocket(Socket socket) {
+    private static Thread allocateThreadForSocket(Socket socket, int client) {
 
         return new Thread(() -> {
             try {
-                handleClient(socket);
+                handleClient(socket, client);
             } catch (Exception e) {
                 System.out.println("Exception.");
                 e.printStackTrace();
@@ -95,26 +247,99 @@ public class MergeServer {
     /*
      * Handles a client connection by merging the top k from the child machines.
      */
-    private static void handleClient(Socket socket) 
+    private static void handleClient(Socket socket, int client) 
         throws IOException {
 
-        // set up a new kryo
-        Kryo kryo = new Kryo();
-
-        // register relevant classes & derived types
-        kryo.register(Driver.class);
-        kryo.register(HashSet.class);
+        // borrow a kryo with the relevant classes & derived types registered
+        Kryo kryo = KryoPool.obtain();
 
         // set up input & output to the socket
         Input input = new Input(socket.getInputStream());
         Output output = new Output(socket.getOutputStream());
 
-        // read while there's data
+        // read until the end of the reducer's stream
+        boolean headerRead = progressive;
+        boolean cellsRead = grid == null;
         while (true) {
 
             try {
 
-                Driver driver = kryo.readObject(input, Driver.class);
+                // in progressive mode, each update replaces the reducer's last one.
+                if (progressive) {
+                    ProgressUpdate update = kryo.readObject(input, ProgressUpdate.class);
+                    publishProgress(client, update);
+                    if (update.isLast()) {
+                        endsOfStream.incrementAndGet();
+                        break;
+                    }
+                    continue;
+                }
+
+                // each reducer first says whether it forwards every driver, and
+                // which input files its mappers read. A snapshot or an export
+                // needs every driver.
+                if (!headerRead) {
+                    headerRead = true;
+                    boolean forwardsAll = input.readBoolean();
+                    ArrayList<?> files = kryo.readObject(input, ArrayList.class);
+                    synchronized (inputFiles) {
+                        for (Object file : files)
+                            inputFiles.add((InputFile) file);
+                    }
+                    if (!forwardsAll && (snapshotFileName != null || export != null)) {
+                        System.out.println("A reducer only forwards its top k drivers, but the "
+                            + (snapshotFileName != null ? "snapshot" : "export")
+                            + " needs every driver: start the reducers with --forward-all.");
+                        break;
+                    }
+                    continue;
+                }
+
+                // with the spatial engine, each reducer then sends the cells it owns.
+                if (!cellsRead) {
+                    cellsRead = true;
+                    CellStats stats = kryo.readObject(input, CellStats.class);
+                    synchronized (MergeServer.class) {
+                        if (cells == null)
+                            cells = stats;
+                        else
+                            cells.add(stats);
+                    }
+                    continue;
+                }
+
+                Driver driver = kryo.readObjectOrNull(input, Driver.class);
+                if (driver == null) {
+                    endsOfStream.incrementAndGet();
+                    break;
+                }
+
+                // when keeping a snapshot, combine the driver with what we
+                // already know about it instead of ranking it right away.
+                if (allDrivers != null) {
+                    synchronized (allDrivers) {
+                        Driver known = allDrivers.putIfAbsent(driver.getId(), driver);
+                        if (known != null)
+                            known.merge(driver);
+                    }
+                    continue;
+                }
+
+                if (driver.isPartial()) {
+                    synchronized (partialDrivers) {
+                        Driver known = partialDrivers.putIfAbsent(driver.getId(), driver);
+                        if (known != null)
+                            known.merge(driver);
+                    }
+                    continue;
+                }
+
+                // complete drivers are exported as they arrive.
+                if (export != null) {
+                    synchronized (export) {
+                        export.write(driver);
+                    }
+                }
 
                 // safely update the topKDrivers heap.
                 synchronized (topKDrivers) {
@@ -127,22 +352,155 @@ public class MergeServer {
                 }
             }
 
-            // on an exception, we're done reading.
-            catch (Exception e) {
+            // on an exception, the reducer is lost.
+            catch (KryoException e) {
+                System.out.println("Lost a child before the end of its stream: " + e.getMessage());
                 break;
             }
         }
 
         System.out.println("Finished reading from a client.");
+        KryoPool.free(kryo);
         input.close();
         output.close();
         socket.close();
     }
 
+    /*
+     * Records a reducer's latest update and, once every reducer has reported,
+     * publishes an estimate of the top k: the ranking so far, how much of the
+     * input it's based on, and how many of its drivers were already in the
+     * last estimate. The final estimate becomes the result of the job.
+     *
+     * Each reducer may have heard more or less from each mapper, so the input
+     * an estimate is based on is, per mapper, the least any reducer heard.
+     * An estimate is only published once that has moved forward for every
+     * mapper (or a mapper is done), so estimates never go backwards.
+     */
+    private static synchronized void publishProgress(int client, ProgressUpdate update)
+        throws IOException {
+
+        latestUpdates[client] = update;
+
+        boolean last = true;
+        PriorityQueue<Driver> top = new PriorityQueue<>();
+        HashMap<Long, ProgressUpdate> least = new HashMap<>();
+        HashMap<Long, Integer> reporters = new HashMap<>();
+        for (ProgressUpdate latest : latestUpdates) {
+
+            if (latest == null)
+                return;
+            last &= latest.isLast();
+
+            for (ProgressUpdate source : latest.getSources()) {
+                least.merge(source.getSource(), source, (a, b) -> new ProgressUpdate(a.getSource(),
+                    Math.min(a.getRowsRead(), b.getRowsRead()), Math.min(a.getRowsSampled(), b.getRowsSampled()),
+                    Math.min(a.getBytesRead(), b.getBytesRead()), a.getTotalBytes(), a.isLast() && b.isLast(), null));
+                reporters.merge(source.getSource(), 1, Integer::sum);
+            }
+
+            for (Driver driver : latest.getDrivers()) {
+                top.add(driver);
+                if (top.size() > k)
+                    top.poll();
+            }
+        }
+
+        // wait until every reducer has heard from every mapper, and every
+        // mapper's progress has moved since the last estimate.
+        long rowsRead = 0, rowsSampled = 0, bytesRead = 0, totalBytes = 0;
+        for (ProgressUpdate source : least.values()) {
+
+            ProgressUpdate published = publishedProgress.get(source.getSource());
+            if (reporters.get(source.getSource()) < latestUpdates.length
+                || (published != null && !source.isAheadOf(published) && !last))
+                return;
+
+            rowsRead += source.getRowsRead();
+            rowsSampled += source.getRowsSampled();
+            bytesRead += source.getBytesRead();
+            totalBytes += source.getTotalBytes();
+        }
+        ProgressUpdate progress = new ProgressUpdate(0, rowsRead, rowsSampled, bytesRead, totalBytes, last, null);
+
+        // an estimate without any rows or drivers yet tells nothing, so wait
+        // for the next one (unless the job really has no drivers).
+        if ((top.isEmpty() || rowsRead == 0) && !last)
+            return;
+        publishedProgress = least;
+
+        // best first
+        ArrayList<Driver> ranking = new ArrayList<>(top);
+        ranking.sort(Collections.reverseOrder());
+
+        HashSet<String> topIds = new HashSet<>();
+        int stable = 0;
+        for (Driver driver : ranking) {
+            topIds.add(driver.getId());
+            if (lastTopIds.contains(driver.getId()))
+                stable++;
+        }
+        lastTopIds = topIds;
+
+        long elapsed = System.currentTimeMillis() - mergeStart;
+        if (firstEstimate) {
+            System.out.println("Stage first-estimate took " + elapsed + " ms");
+            firstEstimate = false;
+        }
+
+        String summary = String.format(Locale.ROOT,
+            "Estimate after %d ms: %.1f%% of input read, %d rows read, %d sampled, top %d stable %d/%d%s",
+            elapsed, 100 * progress.getFractionConsumed(), progress.getRowsRead(), progress.getRowsSampled(),
+            k, stable, ranking.size(), last ? " (final)" : "");
+        System.out.println(summary);
+
+        // the latest estimate is kept next to the output file.
+        Path progressFile = Paths.get(progressFileName).toAbsolutePath();
+        Path temp = progressFile.resolveSibling(progressFile.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp)) {
+            writer.write(summary);
+            writer.newLine();
+            for (Driver driver : ranking) {
+                writer.write(driver.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, progressFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (last)
+            topKDrivers.addAll(ranking);
+    }
+
+    /*
+     * Loads the drivers of the last snapshot, or nothing if there's none yet.
+     */
+    private static HashMap<String, Driver> loadSnapshot()
+        throws IOException {
+
+        if (!DriverSnapshot.exists(snapshotFileName))
+            return new HashMap<>();
+
+        try (DriverSnapshot snapshot = DriverSnapshot.open(snapshotFileName)) {
+            snapshotInputFiles = snapshot.getInputFiles();
+            return snapshot.loadDrivers();
+        }
+    }
+
     private static void flushResultsToDisk() {
 
         try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputFileName, false))) {
 
+            // the top k cells by revenue, best first.
+            if (cells != null) {
+                for (int cell : cells.topCells(k)) {
+                    writer.write(String.format(Locale.ROOT,
+                        "Cell [%s, pickups=%d, dropoffs=%d, revenue=%.2f, moneyPerMinute=%.4f]",
+                        grid.describe(cell), cells.getPickups(cell), cells.getDropoffs(cell),
+                        cells.getRevenue(cell), cells.getMoneyPerMinute(cell)));
+                    writer.newLine();
+                }
+            }
+
             while (topKDrivers.size() > 0) {
                 Driver driver = topKDrivers.poll();
                 writer.write(driver.toString());
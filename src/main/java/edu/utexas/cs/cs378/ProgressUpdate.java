@@ -0,0 +1,101 @@
+package edu.utexas.cs.cs378;
+
+import java.util.ArrayList;
+
+/*
+ * A periodic partial result sent down the pipeline in progressive mode.
+ *
+ * Updates are cumulative: each one replaces the previous update from the same
+ * sender, so a lost or late update never gets counted twice. Mappers send all
+ * of their partial drivers for the receiving reducer's partition, and reducers
+ * send their current top k, along with the progress of each mapper it covers.
+ */
+public class ProgressUpdate {
+
+    // the mapper that sent the update, the same for both of its reducers.
+    private long source;
+
+    // how far into the input the sender(s) are.
+    private long rowsRead;
+    private long rowsSampled;
+    private long bytesRead;
+    private long totalBytes;
+
+    // whether this is the sender's final result.
+    private boolean last;
+
+    private ArrayList<Driver> drivers;
+
+    // for a reducer's update, the progress (without drivers) of the latest
+    // update from each mapper that went into it.
+    private ArrayList<ProgressUpdate> sources;
+
+    public ProgressUpdate() {};
+
+    public ProgressUpdate(long source, long rowsRead, long rowsSampled, long bytesRead, long totalBytes,
+        boolean last, ArrayList<Driver> drivers) {
+
+        this.source = source;
+        this.rowsRead = rowsRead;
+        this.rowsSampled = rowsSampled;
+        this.bytesRead = bytesRead;
+        this.totalBytes = totalBytes;
+        this.last = last;
+        this.drivers = drivers;
+    }
+
+    public long getSource() {
+        return source;
+    }
+
+    public long getRowsRead() {
+        return rowsRead;
+    }
+
+    public long getRowsSampled() {
+        return rowsSampled;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /*
+     * The fraction of the sender's input consumed so far, by the (compressed)
+     * bytes read from disk before the last row the update covers.
+     */
+    public double getFractionConsumed() {
+
+        if (totalBytes == 0)
+            return last ? 1 : 0;
+        return Math.min((double) bytesRead / totalBytes, 1);
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    public ArrayList<Driver> getDrivers() {
+        return drivers;
+    }
+
+    public ArrayList<ProgressUpdate> getSources() {
+        return sources;
+    }
+
+    public void setSources(ArrayList<ProgressUpdate> sources) {
+        this.sources = sources;
+    }
+
+    /*
+     * Whether this covers more of the sender's input than an earlier update,
+     * or is its last one.
+     */
+    public boolean isAheadOf(ProgressUpdate earlier) {
+        return last || rowsRead > earlier.rowsRead || bytesRead > earlier.bytesRead;
+    }
+}
@@ -0,0 +1,242 @@
+package edu.utexas.cs.cs378;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * A long-running HTTP service that answers queries over the merged driver
+ * aggregates, held in memory in a 'DriverIndex'.
+ *
+ *   GET /top?metric=moneyPerMinute&k=10     top k drivers by any metric
+ *   GET /driver?id=<hack license>           a single driver
+ *   GET /range?min=1.5&max=2&limit=100      drivers by $/min, ascending
+ *   POST /reload                            reloads the snapshot from disk
+ *
+ * Responses are JSON, and include the time spent answering in microseconds.
+ * There's no authentication, so the server only listens on the loopback
+ * interface unless given another address to bind with '--bind'.
+ */
+public class QueryServer {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final String USAGE = "<port number> <snapshot file> [--bind=<address>]";
+
+    private static int portNumber = 8080;
+    private static InetAddress bindAddress = InetAddress.getLoopbackAddress();
+    private static String snapshotFileName;
+    private static volatile DriverIndex index;
+
+    public static void main(String[] args)
+        throws IOException {
+
+        Flags flags = new Flags(args);
+        if (flags.positional().size() != 2) {
+            System.out.println("Incorrect Argument Count.");
+            System.out.println("Correct usage: " + USAGE);
+            return;
+        }
+
+        try {
+            System.err.println("Usage: QueryServer " + USAGE);
+            flags.allow("bind");
+            portNumber = Integer.parseInt(flags.positional().get(0));
+            snapshotFileName = flags.positional().get(1);
+            bindAddress = parseBindAddress(flags);
+        }
+        catch (Exception e) {
+            System.out.println("Difficulty parsing arguments: " + e.getMessage());
+            System.out.println("Correct usage: " + USAGE);
+            return;
+        }
+
+        reload();
+        start(bindAddress, portNumber, index, snapshotFileName);
+    }
+
+    /*
+     * Returns the address given by '--bind', or the loopback address if none
+     * is given.
+     */
+    public static InetAddress parseBindAddress(Flags flags)
+        throws IOException {
+
+        if (!flags.has("bind"))
+            return InetAddress.getLoopbackAddress();
+        return InetAddress.getByName(flags.getString("bind", null));
+    }
+
+    /*
+     * Starts serving queries over the given index, which '/reload' replaces
+     * from the snapshot file (if any). Returns once the server is listening;
+     * requests are handled on a pool of threads.
+     */
+    public static HttpServer start(InetAddress address, int port, DriverIndex driverIndex, String snapshotFile)
+        throws IOException {
+
+        index = driverIndex;
+        snapshotFileName = snapshotFile;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(address, port), 0);
+        server.createContext("/top", exchange -> handle(exchange, "GET", QueryServer::top));
+        server.createContext("/driver", exchange -> handle(exchange, "GET", QueryServer::driver));
+        server.createContext("/range", exchange -> handle(exchange, "GET", QueryServer::range));
+        server.createContext("/reload", exchange -> handle(exchange, "POST", params -> {
+            reload();
+            return "{\"drivers\":" + index.size() + "}";
+        }));
+        server.setExecutor(Executors.newFixedThreadPool(Math.max(Runtime.getRuntime().availableProcessors(), 2)));
+        server.start();
+
+        System.out.println("Query server is listening on " + address.getHostAddress() + ":" + port + " with "
+            + driverIndex.size() + " drivers");
+        return server;
+    }
+
+    /*
+     * Loads the snapshot into a new index, and swaps it in once it's built.
+     */
+    private static void reload()
+        throws IOException {
+
+        if (snapshotFileName == null)
+            throw new IllegalStateException("not serving from a snapshot");
+
+        long start = System.currentTimeMillis();
+        try (DriverSnapshot snapshot = DriverSnapshot.open(snapshotFileName)) {
+            index = DriverIndex.fromSnapshot(snapshot);
+        }
+        System.out.println("Loaded " + index.size() + " drivers from " + snapshotFileName + " in "
+            + (System.currentTimeMillis() - start) + " ms");
+    }
+
+    private static String top(HashMap<String, String> params) {
+
+        DriverIndex current = index;
+        String metric = params.getOrDefault("metric", "moneyPerMinute");
+        int k = Integer.parseInt(params.getOrDefault("k", "10"));
+
+        return "{\"metric\":\"" + metric + "\",\"drivers\":" + toJson(current, current.top(metric, k)) + "}";
+    }
+
+    private static String driver(HashMap<String, String> params) {
+
+        DriverIndex current = index;
+        String id = params.get("id");
+        if (id == null)
+            throw new IllegalArgumentException("missing parameter: id");
+
+        int found = current.find(id);
+        if (found < 0)
+            return "{\"driver\":null}";
+        return "{\"driver\":" + toJson(current, found) + "}";
+    }
+
+    private static String range(HashMap<String, String> params) {
+
+        DriverIndex current = index;
+        float min = Float.parseFloat(params.getOrDefault("min", "0"));
+        float max = Float.parseFloat(params.getOrDefault("max", String.valueOf(Float.MAX_VALUE)));
+        int limit = Integer.parseInt(params.getOrDefault("limit", String.valueOf(DEFAULT_LIMIT)));
+
+        return "{\"count\":" + current.countMoneyPerMinuteRange(min, max)
+            + ",\"drivers\":" + toJson(current, current.moneyPerMinuteRange(min, max, limit)) + "}";
+    }
+
+    private interface Query {
+        String answer(HashMap<String, String> params) throws IOException;
+    }
+
+    /*
+     * Answers a request, wrapping the result with the time it took. A request
+     * with another method than the given one is a 405, bad parameters are
+     * reported as a 400, and any other failure, e.g. a snapshot that can't be
+     * reloaded, as a 500. A failed reload keeps serving the previous index.
+     */
+    private static void handle(HttpExchange exchange, String method, Query query)
+        throws IOException {
+
+        long start = System.nanoTime();
+        int status = 200;
+        String body;
+
+        try {
+            if (!method.equals(exchange.getRequestMethod())) {
+                status = 405;
+                body = "{\"error\":\"only " + method + " is allowed\"}";
+                exchange.getResponseHeaders().set("Allow", method);
+            }
+            else {
+                body = query.answer(parseQuery(exchange.getRequestURI().getRawQuery()));
+            }
+        }
+        catch (IllegalArgumentException | IllegalStateException e) {
+            status = 400;
+            body = "{\"error\":\"" + escape(String.valueOf(e.getMessage())) + "\"}";
+        }
+        catch (IOException | RuntimeException e) {
+            System.out.println("Failed to answer " + exchange.getRequestURI() + ": " + e);
+            status = 500;
+            body = "{\"error\":\"" + escape(String.valueOf(e)) + "\"}";
+        }
+
+        long micros = (System.nanoTime() - start) / 1000;
+        byte[] response = (body.substring(0, body.length() - 1) + ",\"tookMicros\":" + micros + "}\n")
+            .getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, response.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(response);
+        }
+    }
+
+    private static HashMap<String, String> parseQuery(String query)
+        throws IOException {
+
+        HashMap<String, String> params = new HashMap<>();
+        if (query == null || query.isEmpty())
+            return params;
+
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals < 0)
+                params.put(URLDecoder.decode(pair, "UTF-8"), "");
+            else
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                    URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+        }
+        return params;
+    }
+
+    private static String toJson(DriverIndex current, int[] drivers) {
+
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < drivers.length; i++) {
+            if (i > 0)
+                json.append(',');
+            json.append(toJson(current, drivers[i]));
+        }
+        return json.append(']').toString();
+    }
+
+    private static String toJson(DriverIndex current, int driver) {
+        return String.format(Locale.ROOT,
+            "{\"id\":\"%s\",\"trips\":%d,\"taxis\":%d,\"totalAmount\":%.2f,\"seconds\":%d,\"moneyPerMinute\":%.4f}",
+            escape(current.getId(driver)), current.getNumTrips(driver), current.getNumTaxis(driver),
+            current.getTotalAmount(driver), current.getTimeSpentDriving(driver), current.getMoneyPerMinute(driver));
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+}
@@ -1,13 +1,22 @@
 package edu.utexas.cs.cs378;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Output;
 import com.esotericsoftware.kryo.io.Input;
+import java.io.File;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ReducerServer {
 
@@ -17,24 +26,70 @@ public class ReducerServer {
     private static String hostName;
     private static int hostPort;
 
+    // when set, every driver is forwarded to the merger rather than just the
+    // top k, e.g. so that the merger can keep a snapshot of all drivers.
+    private static boolean forwardAll = false;
+
+    // combines the records of a driver from every mapper, spilling sorted
+    // runs once it holds more than 'maxDrivers' drivers.
+    private static int maxDrivers = 1000000;
+    private static DriverCombiner combiner;
+    private static AtomicInteger endsOfStream = new AtomicInteger();
+
+    // when set, mappers send per-cell stats of the spatial engine instead of drivers.
+    private static boolean spatial = false;
+    private static CellStats cells;
+
+    // when set, mappers send cumulative partial results while they run, and
+    // the current top k is forwarded to the merger after every update.
+    private static boolean progressive = false;
+    private static ProgressUpdate[] latestUpdates = new ProgressUpdate[2];
+    private static Kryo mergeKryo;
+    private static Output mergeOutput;
+
+    // the union of the mappers' hot drivers, which may be split across
+    // reducers and so are forwarded to the merger instead of being ranked.
+    private static HashSet<String> hotDrivers = new HashSet<>();
+    private static CountDownLatch plansReceived = new CountDownLatch(2);
+    private static final int PLAN_TIMEOUT_SECONDS = 60;
+
+    // the input files the mappers read, passed on to the merger.
+    private static LinkedHashSet<InputFile> inputFiles = new LinkedHashSet<>();
+
+    // the load of this reducer, to check the balance between reducers.
+    private static AtomicLong driversReceived = new AtomicLong();
+    private static AtomicLong partialsReceived = new AtomicLong();
+    private static AtomicLong bytesReceived = new AtomicLong();
+
+    private static final String USAGE = "<port number> <host name> <host port> [--forward-all] [--engine=spatial] "
+        + "[--progressive] [--max-drivers=<n>]";
+
     public static void main(String[] args) {
 
         // handle incorrect args length.
-        if (args.length != 3) {
+        Flags flags = new Flags(args);
+        if (flags.positional().size() != 3) {
             System.out.println("Not enough arguments.");
-            System.out.println("Correct usage: <port number> <host name> <host port>");
+            System.out.println("Correct usage: " + USAGE);
         }
 
         // parse arguments.
         try {
-            System.err.println("Usage: ReducerServer <port number> <host name> <host port>");
-            portNumber = Integer.parseInt(args[0]);
-            hostName = args[1];
-            hostPort = Integer.parseInt(args[2]);
+            System.err.println("Usage: ReducerServer " + USAGE);
+            flags.allow("forward-all", "engine", "progressive", "max-drivers");
+            portNumber = Integer.parseInt(flags.positional().get(0));
+            hostName = flags.positional().get(1);
+            hostPort = Integer.parseInt(flags.positional().get(2));
+            forwardAll = flags.getBoolean("forward-all", false);
+            spatial = "spatial".equals(flags.getString("engine", "driver"));
+            progressive = flags.getBoolean("progressive", false);
+            maxDrivers = flags.getInt("max-drivers", maxDrivers);
+            if (progressive && (spatial || forwardAll))
+                throw new IllegalArgumentException("progressive mode only forwards the top k drivers");
         }
         catch (Exception e) {
             System.out.println("Difficulty parsing arguments: " + e.getMessage());
-            System.out.println("Correct usage: <port number> <host name> <host port>");
+            System.out.println("Correct usage: " + USAGE);
             return;
         }
 
@@ -48,28 +103,59 @@ public class ReducerServer {
 
             // accept clients
 			Socket clientSocket1 = serverSocket.accept();
-            Thread thread1 = allocateThreadForSocket(clientSocket1);
+            Thread thread1 = allocateThreadForSocket(clientSocket1, 0);
             System.out.println("Accepted client connection (1/2)");
 
             Socket clientSocket2 = serverSocket.accept();
-            Thread thread2 = allocateThreadForSocket(clientSocket2);
+            Thread thread2 = allocateThreadForSocket(clientSocket2, 1);
             System.out.println("Accepted client connection (2/2)");
 
+            // in progressive mode, updates are forwarded as soon as they arrive.
+            Socket mergeSocket = null;
+            if (progressive) {
+                mergeSocket = new Socket(hostName, hostPort);
+                mergeKryo = KryoPool.obtain();
+                mergeOutput = new Output(mergeSocket.getOutputStream());
+            }
 
             topKDrivers = new PriorityQueue<>();
+            combiner = new DriverCombiner(maxDrivers, new File(System.getProperty("java.io.tmpdir")));
 
             // start reading from child machines in cluster and wait for them to finish.
+            long reduceStart = System.currentTimeMillis();
             thread1.start();
             thread2.start();
             thread1.join();
             thread2.join();
 
             System.out.println("All data received!");
+            System.out.println("Stage reduce took " + (System.currentTimeMillis() - reduceStart) + " ms");
+            System.out.println("Load: received " + driversReceived + " drivers (" + partialsReceived + " partial), "
+                + bytesReceived + " bytes");
+
+            // without every end of stream, the drivers can't be complete.
+            if (endsOfStream.get() < 2) {
+                System.out.println("Only " + endsOfStream.get() + "/2 mappers finished sending, giving up.");
+                serverSocket.close();
+                System.exit(1);
+            }
+
+            // the final update was already forwarded with the last mapper's.
+            if (progressive) {
+                mergeOutput.close();
+                mergeSocket.close();
+                serverSocket.close();
+                return;
+            }
+
+            System.out.println("Forwarding the parts of " + hotDrivers.size() + " hot driver(s) to the merger.");
             System.out.println("Sending data to merger...");
 
             /// flush our top K to the 
-            Socket mergeSocket = new Socket(hostName, hostPort);
+            long forwardStart = System.currentTimeMillis();
+            mergeSocket = new Socket(hostName, hostPort);
             flushDataToMerger(mergeSocket);
+            System.out.println("Stage forward took " + (System.currentTimeMillis() - forwardStart) + " ms");
 
             // close the server.
             serverSocket.close();
@@ -86,24 +172,55 @@ public class ReducerServer {
     private static void flushDataToMerger(Socket socket) 
         throws IOException {
         
-        // create new kryo instance
-        Kryo kryo = new Kryo();
-        
-        // register relevant & derived types
-        kryo.register(Driver.class);
-        kryo.register(HashSet.class);
+        // borrow a kryo for this connection
+        Kryo kryo = KryoPool.obtain();
 
         // initialize in/out streams
         Input input = new Input(socket.getInputStream());
         Output output = new Output(socket.getOutputStream());
 
+        // tell the merger whether it gets every driver or just our top k, and
+        // which files they come from.
+        output.writeBoolean(forwardAll);
+        kryo.writeObject(output, new ArrayList<>(inputFiles));
+
+        // send the cells of our partition, combined over every mapper.
+        if (cells != null) {
+            kryo.writeObject(output, cells);
+        }
+
+        // now that every mapper is done, combine the records of each driver.
+        // Parts of hot drivers (and every driver, when forwarding all) are
+        // streamed to the merger as they come out; the rest are ranked.
+        long combineStart = System.currentTimeMillis();
+        combiner.finish(driver -> {
+
+            if (hotDrivers.contains(driver.getId()))
+                driver.setPartial(true);
+
+            if (forwardAll || driver.isPartial()) {
+                kryo.writeObjectOrNull(output, driver, Driver.class);
+                return;
+            }
+
+            topKDrivers.add(driver);
+            if (topKDrivers.size() > k)
+                topKDrivers.poll();
+        });
+        System.out.println("Combined " + combiner.getRecordsAdded() + " records (" + combiner.getRunCount()
+            + " spilled runs) in " + (System.currentTimeMillis() - combineStart) + " ms");
+
         // send each of the drivers through the socket.
         while (topKDrivers.size() > 0) {
-            kryo.writeObject(output, topKDrivers.poll());
+            kryo.writeObjectOrNull(output, topKDrivers.poll(), Driver.class);
         }
 
+        // mark the end of our stream.
+        kryo.writeObjectOrNull(output, null, Driver.class);
+
         // flush the buffer.
         output.flush();
+        KryoPool.free(kryo);
 
         // close resources
         input.close();
@@ -114,11 +231,11 @@ public class ReducerServer {
     /*
      * Allocates a thread for a child machine to handle the client.
      */
-    private static Thread allocateThreadForSocket(Socket socket) {
+    private static Thread allocateThreadForSocket(Socket socket, int client) {
 
         return new Thread(() -> {
             try {
-                handleClient(socket);
+                handleClient(socket, client);
             } catch (Exception e) {
                 System.out.println("Exception.");
                 e.printStackTrace();
@@ -130,47 +247,143 @@ public class ReducerServer {
     /*
      * Handles a connection with a client.
      */
-    private static void handleClient(Socket socket) 
+    private static void handleClient(Socket socket, int client) 
         throws InterruptedException, IOException {
 
-        Kryo kryo = new Kryo();
-
-        kryo.register(Driver.class);
-        kryo.register(HashSet.class);
+        Kryo kryo = KryoPool.obtain();
 
         Input inputStream = new Input(socket.getInputStream());
         Output outputStream = new Output(socket.getOutputStream());
 
-        // do work until there's a problem
-        while (true) {
-
+        // outside of progressive mode, each mapper starts with the files it
+        // read and its hot drivers. Wait for every mapper's hot drivers,
+        // since any of them may split a driver.
+        // a mapper lost before then fails the job, rather than leaving the
+        // other one waiting.
+        if (!progressive) {
             try {
+                ArrayList<?> files = kryo.readObject(inputStream, ArrayList.class);
+                synchronized (inputFiles) {
+                    for (Object file : files)
+                        inputFiles.add((InputFile) file);
+                }
+                HashSet<?> hot = kryo.readObject(inputStream, HashSet.class);
+                synchronized (hotDrivers) {
+                    for (Object id : hot)
+                        hotDrivers.add((String) id);
+                }
+            }
+            catch (KryoException e) {
+                System.out.println("Lost a client before it sent its hot drivers: " + e.getMessage());
+                System.exit(1);
+            }
+            plansReceived.countDown();
+            if (!plansReceived.await(PLAN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Not every mapper sent its hot drivers within " + PLAN_TIMEOUT_SECONDS
+                    + " s, giving up.");
+                System.exit(1);
+            }
+        }
 
-                // read a driver from the socket
-                Driver driver = kryo.readObject(inputStream, Driver.class);
+        // do work until the end of the mapper's stream.
+        try {
 
-                // safely add the current driver to the heap.
-                synchronized (topKDrivers) {
+            // in progressive mode, each update replaces the mapper's last one.
+            while (progressive) {
+                ProgressUpdate update = kryo.readObject(inputStream, ProgressUpdate.class);
+                forwardProgress(client, update);
+                if (update.isLast()) {
+                    endsOfStream.incrementAndGet();
+                    break;
+                }
+            }
 
-                    topKDrivers.add(driver);
-                    
-                    // if we have more than 10 drivers in the heap, remove the
-                    // driver with the least money per minute.
-                    if (topKDrivers.size() > k) {
-                       topKDrivers.poll();
-                    }
+            // with the spatial engine, combine the cells from each mapper.
+            if (spatial) {
+                CellStats stats = kryo.readObject(inputStream, CellStats.class);
+                synchronized (ReducerServer.class) {
+                    if (cells == null)
+                        cells = stats;
+                    else
+                        cells.add(stats);
                 }
             }
 
-            // when there's a problem reading, exit.
-            catch (Exception e) {
-                break;
+            // read drivers from the socket until the end of stream marker.
+            while (!progressive) {
+
+                Driver driver = kryo.readObjectOrNull(inputStream, Driver.class);
+                if (driver == null) {
+                    endsOfStream.incrementAndGet();
+                    break;
+                }
+
+                driversReceived.incrementAndGet();
+                if (driver.isPartial() || hotDrivers.contains(driver.getId()))
+                    partialsReceived.incrementAndGet();
+
+                // the records of a driver are only complete once every
+                // mapper is done, so nothing is ranked yet.
+                combiner.add(driver);
             }
         }
 
+        // when there's a problem reading, the client is lost.
+        catch (KryoException e) {
+            System.out.println("Lost a client before the end of its stream: " + e.getMessage());
+        }
+
         System.out.println("Finished reading from a client");
+        bytesReceived.addAndGet(inputStream.total());
+        KryoPool.free(kryo);
         inputStream.close();
         outputStream.close();
         socket.close();
     }
+
+    /*
+     * Records a mapper's latest update, and forwards the top k of the drivers
+     * from the latest update of every mapper, along with their combined
+     * progress. Nothing is forwarded until every mapper has reported, so the
+     * progress is never overstated.
+     */
+    private static synchronized void forwardProgress(int client, ProgressUpdate update) {
+
+        latestUpdates[client] = update;
+
+        long rowsRead = 0, rowsSampled = 0, bytesRead = 0, totalBytes = 0;
+        boolean last = true;
+        HashMap<String, Driver> drivers = new HashMap<>();
+        ArrayList<ProgressUpdate> sources = new ArrayList<>();
+        for (ProgressUpdate latest : latestUpdates) {
+
+            if (latest == null)
+                return;
+
+            rowsRead += latest.getRowsRead();
+            rowsSampled += latest.getRowsSampled();
+            bytesRead += latest.getBytesRead();
+            totalBytes += latest.getTotalBytes();
+            last &= latest.isLast();
+            sources.add(new ProgressUpdate(latest.getSource(), latest.getRowsRead(), latest.getRowsSampled(),
+                latest.getBytesRead(), latest.getTotalBytes(), latest.isLast(), null));
+
+            // combine into fresh drivers, so the latest updates stay as sent.
+            for (Driver driver : latest.getDrivers())
+                drivers.computeIfAbsent(driver.getId(), Driver::new).merge(driver);
+        }
+
+        PriorityQueue<Driver> top = new PriorityQueue<>();
+        for (Driver driver : drivers.values()) {
+            top.add(driver);
+            if (top.size() > k)
+                top.poll();
+        }
+
+        ProgressUpdate forward = new ProgressUpdate(0, rowsRead, rowsSampled, bytesRead, totalBytes, last,
+            new ArrayList<>(top));
+        forward.setSources(sources);
+        mergeKryo.writeObject(mergeOutput, forward);
+        mergeOutput.flush();
+    }
 }
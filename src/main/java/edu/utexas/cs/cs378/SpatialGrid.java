@@ -0,0 +1,79 @@
+package edu.utexas.cs.cs378;
+
+import java.util.Locale;
+
+/*
+ * A grid of equally sized cells over New York City. Cells are numbered row by
+ * row from the south-west corner, and points outside of the grid (including
+ * the 0,0 coordinates of trips without GPS data) don't map to any cell.
+ */
+public class SpatialGrid {
+
+    public static final String DEFAULT_SIZE = "50x50";
+
+    // the bounds of the five boroughs, with a little margin.
+    private static final float MIN_LONGITUDE = -74.27f;
+    private static final float MAX_LONGITUDE = -73.68f;
+    private static final float MIN_LATITUDE = 40.48f;
+    private static final float MAX_LATITUDE = 40.93f;
+
+    private final int rows;
+    private final int cols;
+    private final float cellHeight;
+    private final float cellWidth;
+
+    public SpatialGrid(int rows, int cols) {
+
+        if (rows <= 0 || cols <= 0)
+            throw new IllegalArgumentException("grid must have at least one row and column");
+
+        this.rows = rows;
+        this.cols = cols;
+        this.cellHeight = (MAX_LATITUDE - MIN_LATITUDE) / rows;
+        this.cellWidth = (MAX_LONGITUDE - MIN_LONGITUDE) / cols;
+    }
+
+    /*
+     * Parses a grid size given as '<rows>x<cols>'.
+     */
+    public static SpatialGrid parse(String size) {
+
+        String[] parts = size.toLowerCase(Locale.ROOT).split("x");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("grid size must look like <rows>x<cols>: " + size);
+        return new SpatialGrid(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+    }
+
+    public int numCells() {
+        return rows * cols;
+    }
+
+    /*
+     * Returns the cell containing the given point, or -1 if it's outside of
+     * the grid. The checks are written so that NaN coordinates, which 'Trip'
+     * lets through, fail them too.
+     */
+    public int cellOf(float longitude, float latitude) {
+
+        if (!(longitude >= MIN_LONGITUDE && longitude < MAX_LONGITUDE))
+            return -1;
+        if (!(latitude >= MIN_LATITUDE && latitude < MAX_LATITUDE))
+            return -1;
+
+        int row = Math.min((int) ((latitude - MIN_LATITUDE) / cellHeight), rows - 1);
+        int col = Math.min((int) ((longitude - MIN_LONGITUDE) / cellWidth), cols - 1);
+        return row * cols + col;
+    }
+
+    /*
+     * Describes a cell by its position in the grid and the coordinates of its
+     * south-west corner.
+     */
+    public String describe(int cell) {
+
+        int row = cell / cols;
+        int col = cell % cols;
+        return String.format(Locale.ROOT, "id=%d, row=%d, col=%d, latitude=%.4f, longitude=%.4f",
+            cell, row, col, MIN_LATITUDE + row * cellHeight, MIN_LONGITUDE + col * cellWidth);
+    }
+}
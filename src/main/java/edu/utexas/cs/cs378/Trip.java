@@ -3,6 +3,7 @@ package edu.utexas.cs.cs378;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
+import java.util.Arrays;
 import java.util.regex.Pattern;
 
 public class Trip {
@@ -29,21 +30,27 @@ public class Trip {
 
     // private static final int TRIP_DISTANCE = 5;
     
-    // the fields representing a trip
+    // the fields representing a trip. The ids are only cut out of the line
+    // when asked for, so that the mappers can look them up in place.
+    private String line;
+    private int medallionStart;
+    private int medallionEnd;
+    private int hackLicenseStart;
+    private int hackLicenseEnd;
     private String medallion;
     private String hackLicense;
     private float totalAmount;
     private long tripTimeInSecs;
+    private float pickupLongitude;
+    private float pickupLatitude;
+    private float dropoffLongitude;
+    private float dropoffLatitude;
 
 
     // irrelevant fields for the current use-case
     // private String pickupDatetime;
     // private String dropoffDatetime;
     // private String tripDistance;
-    // private String pickupLongitude;
-    // private String pickupLatitude;
-    // private String dropoffLongitude;
-    // private String dropoffLatitude;
     // private String paymentType;
     // private String fareAmount;
     // private String surcharge;
@@ -66,15 +73,14 @@ public class Trip {
     public Trip(String line) {
 
         // split the line by delimeter
-        String[] parsedLine = line.split(",");
+        this.line = line;
+        String[] parsedLine = split(line);
         
         // handle invalid lines
         if (!lineIsValid(parsedLine))
             throw new IllegalArgumentException("invalid line");
 
         // initialize relevant fields
-        medallion = parsedLine[MEDALLION];
-        hackLicense = parsedLine[HACK_LICENSE];
         totalAmount = Float.parseFloat(parsedLine[TOTAL_AMOUNT]);
         tripTimeInSecs = Long.parseLong(parsedLine[TRIP_TIME_IN_SECS]);
     }
@@ -83,6 +89,8 @@ public class Trip {
      * Gets the driver for the current trip
      */
     public String getDriver() {
+        if (hackLicense == null)
+            hackLicense = line.substring(hackLicenseStart, hackLicenseEnd);
         return hackLicense;
     }
 
@@ -90,9 +98,34 @@ public class Trip {
      * Returns the taxi used for the current trip
      */
     public String getTaxi() {
+        if (medallion == null)
+            medallion = line.substring(medallionStart, medallionEnd);
         return medallion;
     }
 
+    /*
+     * Returns the line of the trip, and where in it the ids are.
+     */
+    public String getLine() {
+        return line;
+    }
+
+    public int getDriverStart() {
+        return hackLicenseStart;
+    }
+
+    public int getDriverEnd() {
+        return hackLicenseEnd;
+    }
+
+    public int getTaxiStart() {
+        return medallionStart;
+    }
+
+    public int getTaxiEnd() {
+        return medallionEnd;
+    }
+
     /*
      * Returns the total amount/cost of the current trip
      */
@@ -107,6 +140,68 @@ public class Trip {
         return tripTimeInSecs;
     }
 
+    /*
+     * Returns the pickup & dropoff coordinates of the trip, as parsed (and
+     * range-checked) while validating the line.
+     */
+    public float getPickupLongitude() {
+        return pickupLongitude;
+    }
+
+    public float getPickupLatitude() {
+        return pickupLatitude;
+    }
+
+    public float getDropoffLongitude() {
+        return dropoffLongitude;
+    }
+
+    public float getDropoffLatitude() {
+        return dropoffLatitude;
+    }
+
+    /*
+     * Splits the line on commas like 'String.split' does (trailing empty
+     * fields are dropped), except that the id fields are only located, not
+     * copied into Strings of their own.
+     */
+    private String[] split(String line) {
+
+        int count = 1;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == ',')
+                count++;
+        }
+
+        String[] fields = new String[count];
+        int start = 0;
+        for (int field = 0; field < count; field++) {
+
+            int end = line.indexOf(',', start);
+            if (end < 0)
+                end = line.length();
+
+            if (field == MEDALLION) {
+                medallionStart = start;
+                medallionEnd = end;
+            }
+            else if (field == HACK_LICENSE) {
+                hackLicenseStart = start;
+                hackLicenseEnd = end;
+            }
+            else {
+                fields[field] = line.substring(start, end);
+            }
+            start = end + 1;
+        }
+
+        // drop trailing empty fields (lines that short are invalid anyway, so
+        // the id fields don't need checking).
+        while (count > 0 && fields[count - 1] != null && fields[count - 1].isEmpty())
+            count--;
+        return count == fields.length ? fields : Arrays.copyOf(fields, count);
+    }
+
     /*
      * Helper method to determine whether a given string is a float or not.
      * If an exception is caught, we simply return false.
@@ -194,6 +289,12 @@ public class Trip {
         if (Math.abs(pickup_longitude) > 180 || Math.abs(dropoff_longitude) > 180)
             return false;
 
+        // keep the coordinates around for spatial analyses.
+        pickupLongitude = pickup_longitude;
+        pickupLatitude = pickup_latitude;
+        dropoffLongitude = dropoff_longitude;
+        dropoffLatitude = dropoff_latitude;
+
         // validate the trip length
         if (!isLong(parsedLine[TRIP_TIME_IN_SECS]))
             return false;
@@ -0,0 +1,510 @@
+package edu.utexas.cs.cs378;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+
+/*
+ * Generates synthetic trip data in the 17 column layout 'Trip' expects.
+ *
+ * Trips per driver follow a Zipfian distribution, each driver sticks to a few
+ * taxis, and a configurable fraction of rows is broken so that it fails each
+ * of the rules in 'Trip.lineIsValid'. Rows are generated in chunks on many
+ * threads and written out in order. For bz2 output, every chunk is compressed
+ * as its own stream, and the streams are concatenated into one file.
+ */
+public class TripDataGenerator {
+
+    // the ways a row can be broken, one per rule in 'Trip.lineIsValid'.
+    public static final String[] RULES = {
+        "columns", "money", "total", "expensive", "coordinates-format", "coordinates-range",
+        "trip-time-format", "date-format", "duration", "short", "payment"
+    };
+
+    private static final int CHUNK_ROWS = 50000;
+    private static final long DAY_SECONDS = 86400L;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    // pickup hotspots (longitude, latitude): midtown, downtown, JFK & LaGuardia.
+    private static final double[][] HOTSPOTS = {
+        { -73.9855, 40.7580 }, { -74.0090, 40.7110 }, { -73.7781, 40.6413 }, { -73.8740, 40.7769 }
+    };
+
+    private final long rows;
+    private int numDrivers = 40000;
+    private int numTaxis = 14000;
+    private int driverOffset = 0;
+    private double skew = 1.0;
+    private boolean ordered = true;
+    private long startSecond = LocalDate.of(2013, 1, 1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+    private int days = 365;
+    private long seed = 42;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final double[] invalidFractions = new double[RULES.length];
+
+    // derived state, built once before generating.
+    private double[] driverCdf;
+    private byte[] driverIds;
+    private byte[] taxiIds;
+
+    public TripDataGenerator(long rows) {
+        this.rows = rows;
+    }
+
+    public static void main(String[] args)
+        throws IOException, InterruptedException, ExecutionException {
+
+        Flags flags = new Flags(args);
+        if (flags.positional().size() != 2) {
+            System.out.println("Incorrect Argument Count.");
+            System.out.println("Correct usage: <output file> <rows> [--drivers=N] [--taxis=N] [--skew=S] "
+                + "[--ordered=true|false] [--days=N] [--seed=N] [--threads=N] [--invalid=F] [--invalid-<rule>=F]");
+            System.out.println("Rules: " + String.join(", ", RULES));
+            return;
+        }
+
+        TripDataGenerator generator;
+        String outputFile;
+        try {
+            List<String> known = new ArrayList<>(Arrays.asList("drivers", "taxis", "driver-offset", "skew",
+                "ordered", "days", "seed", "threads", "invalid"));
+            for (String rule : RULES)
+                known.add("invalid-" + rule);
+            flags.allow(known);
+
+            outputFile = flags.positional().get(0);
+            generator = new TripDataGenerator(Long.parseLong(flags.positional().get(1)));
+            generator.setDrivers(flags.getInt("drivers", generator.numDrivers));
+            generator.setTaxis(flags.getInt("taxis", generator.numTaxis));
+            generator.setDriverOffset(flags.getInt("driver-offset", 0));
+            generator.setSkew(flags.getDouble("skew", generator.skew));
+            generator.setOrdered(flags.getBoolean("ordered", generator.ordered));
+            generator.setDays(flags.getInt("days", generator.days));
+            generator.setSeed(flags.getLong("seed", generator.seed));
+            generator.setThreads(flags.getInt("threads", generator.threads));
+
+            double invalid = flags.getDouble("invalid", 0);
+            for (String rule : RULES)
+                generator.setInvalidFraction(rule, flags.getDouble("invalid-" + rule, invalid));
+        }
+        catch (Exception e) {
+            System.out.println("Difficulty parsing arguments: " + e.getMessage());
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        generator.write(outputFile);
+        long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+
+        System.out.println("Wrote " + generator.rows + " rows to " + outputFile + " in " + elapsed + " ms ("
+            + (generator.rows * 1000 / elapsed) + " rows/s)");
+    }
+
+    public void setDrivers(int numDrivers) {
+        this.numDrivers = numDrivers;
+    }
+
+    public void setTaxis(int numTaxis) {
+        this.numTaxis = numTaxis;
+    }
+
+    /*
+     * Shifts the range of driver ids, so that separately generated files can
+     * have disjoint drivers.
+     */
+    public void setDriverOffset(int driverOffset) {
+        this.driverOffset = driverOffset;
+    }
+
+    /*
+     * Sets the exponent of the Zipfian distribution of trips per driver. Zero
+     * gives every driver the same share of the trips.
+     */
+    public void setSkew(double skew) {
+        this.skew = skew;
+    }
+
+    /*
+     * Whether pickup times increase with the row number, like the sorted
+     * dataset, or are spread randomly over the whole time span.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    public void setDays(int days) {
+        this.days = days;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = Math.max(threads, 1);
+    }
+
+    /*
+     * Sets the fraction of rows broken to fail the given rule.
+     */
+    public void setInvalidFraction(String rule, double fraction) {
+
+        int index = Arrays.asList(RULES).indexOf(rule);
+        if (index < 0)
+            throw new IllegalArgumentException("unknown rule: " + rule);
+        invalidFractions[index] = fraction;
+    }
+
+    /*
+     * Writes all rows to the given file, bz2 compressed if the name ends with
+     * '.bz2'.
+     */
+    public void write(String fileName)
+        throws IOException, InterruptedException, ExecutionException {
+
+        buildTables();
+
+        boolean compress = fileName.endsWith(".bz2");
+        long numChunks = (rows + CHUNK_ROWS - 1) / CHUNK_ROWS;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try (OutputStream output = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 20)) {
+
+            // keep a bounded number of chunks in flight, and write them in order.
+            ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+            for (long chunk = 0; chunk < numChunks; chunk++) {
+
+                final long firstRow = chunk * CHUNK_ROWS;
+                final long lastRow = Math.min(firstRow + CHUNK_ROWS, rows);
+                pending.add(executor.submit(() -> generateChunk(firstRow, lastRow, compress)));
+
+                if (pending.size() >= 2 * threads)
+                    output.write(pending.poll().get());
+            }
+
+            while (!pending.isEmpty())
+                output.write(pending.poll().get());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    /*
+     * Precomputes the Zipfian CDF over drivers, and the hex ids of every
+     * driver and taxi.
+     */
+    private void buildTables() {
+
+        driverCdf = new double[numDrivers];
+        double total = 0;
+        for (int rank = 0; rank < numDrivers; rank++) {
+            total += 1.0 / Math.pow(rank + 1, skew);
+            driverCdf[rank] = total;
+        }
+        for (int rank = 0; rank < numDrivers; rank++)
+            driverCdf[rank] /= total;
+
+        driverIds = new byte[numDrivers * 32];
+        for (int driver = 0; driver < numDrivers; driver++)
+            writeHexId(driverIds, driver * 32, driver + driverOffset, 0x9e3779b97f4a7c15L);
+
+        taxiIds = new byte[numTaxis * 32];
+        for (int taxi = 0; taxi < numTaxis; taxi++)
+            writeHexId(taxiIds, taxi * 32, taxi, 0xc2b2ae3d27d4eb4fL);
+    }
+
+    /*
+     * Generates the rows [firstRow, lastRow). Each chunk has its own random
+     * stream, so the output doesn't depend on the number of threads.
+     */
+    private byte[] generateChunk(long firstRow, long lastRow, boolean compress)
+        throws IOException {
+
+        SplittableRandom random = new SplittableRandom(seed ^ (firstRow * 0x9e3779b97f4a7c15L));
+        RowBuffer row = new RowBuffer((int) (lastRow - firstRow) * 200);
+        long span = days * DAY_SECONDS;
+
+        for (long index = firstRow; index < lastRow; index++) {
+
+            // pick the rule this row breaks, if any.
+            int broken = -1;
+            double roll = random.nextDouble();
+            for (int rule = 0; rule < RULES.length; rule++) {
+                roll -= invalidFractions[rule];
+                if (roll < 0) {
+                    broken = rule;
+                    break;
+                }
+            }
+            writeRow(row, random, index, span, broken < 0 ? null : RULES[broken]);
+        }
+
+        if (!compress)
+            return row.toByteArray();
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(row.size() / 4);
+        try (BZip2CompressorOutputStream bz2 = new BZip2CompressorOutputStream(compressed)) {
+            bz2.write(row.buf, 0, row.size());
+        }
+        return compressed.toByteArray();
+    }
+
+    /*
+     * Writes a single row, broken so that it fails the given rule (or valid
+     * if the rule is null).
+     */
+    private void writeRow(RowBuffer row, SplittableRandom random, long index, long span, String broken) {
+
+        int driver = Arrays.binarySearch(driverCdf, random.nextDouble());
+        if (driver < 0)
+            driver = Math.min(-driver - 1, numDrivers - 1);
+
+        // every driver sticks to 1-3 taxis.
+        int driverTaxis = 1 + (int) (mix(driver) & 0x3) % 3;
+        int taxi = (int) Long.remainderUnsigned(mix(driver * 3L + random.nextInt(driverTaxis)), numTaxis);
+
+        long pickup = startSecond + (ordered ? index * span / Math.max(rows, 1) : random.nextLong(span));
+        int seconds = 120 + (int) (-600 * Math.log(1 - random.nextDouble()));
+        if ("short".equals(broken))
+            seconds = 10 + random.nextInt(20);
+        int statedSeconds = "duration".equals(broken) ? seconds + 60 : seconds;
+
+        // fares: $2.50 flag drop, ~$0.50 per 1/5 mile, ~12mph in the city.
+        long distanceHundredths = Math.max(seconds / 3, 1);
+        long fareCents = 250 + distanceHundredths * 250 / 100;
+        long surchargeCents = (pickup % DAY_SECONDS) >= 20 * 3600 ? 50 : 0;
+        long mtaTaxCents = 50;
+        boolean card = random.nextInt(2) == 0;
+        long tipCents = card ? fareCents * (15 + random.nextInt(11)) / 100 : 0;
+        long tollsCents = random.nextInt(20) == 0 ? 533 : 0;
+        if ("expensive".equals(broken))
+            fareCents += 50000;
+        long totalCents = fareCents + surchargeCents + mtaTaxCents + tipCents + tollsCents;
+        if ("total".equals(broken))
+            totalCents += 100 + random.nextInt(1000);
+
+        double[] hotspot = HOTSPOTS[random.nextInt(HOTSPOTS.length)];
+        long pickupLon = microDegrees(hotspot[0] + gaussian(random) * 0.02);
+        long pickupLat = microDegrees(hotspot[1] + gaussian(random) * 0.02);
+        long dropoffLon = microDegrees(-73.98 + gaussian(random) * 0.05);
+        long dropoffLat = microDegrees(40.75 + gaussian(random) * 0.05);
+        if ("coordinates-range".equals(broken))
+            pickupLat = 91000000 + random.nextInt(1000000);
+
+        row.putBytes(taxiIds, taxi * 32, 32).put(',');
+        row.putBytes(driverIds, driver * 32, 32).put(',');
+        if ("date-format".equals(broken))
+            row.putDateTime(pickup).replaceLast(9, (byte) 'T').put(',');
+        else
+            row.putDateTime(pickup).put(',');
+        row.putDateTime(pickup + seconds).put(',');
+        if ("trip-time-format".equals(broken))
+            row.putDecimal(statedSeconds * 10L + 5, 1).put(',');
+        else
+            row.putLong(statedSeconds).put(',');
+        row.putDecimal(distanceHundredths, 2).put(',');
+        if ("coordinates-format".equals(broken))
+            row.put(',');
+        else
+            row.putDecimal(pickupLon, 6).put(',');
+        row.putDecimal(pickupLat, 6).put(',');
+        row.putDecimal(dropoffLon, 6).put(',');
+        row.putDecimal(dropoffLat, 6).put(',');
+        row.putAscii("payment".equals(broken) ? "UNK" : card ? "CRD" : "CSH").put(',');
+        if ("money".equals(broken))
+            row.putAscii("N/A").put(',');
+        else
+            row.putDecimal(fareCents, 2).put(',');
+        row.putDecimal(surchargeCents, 2).put(',');
+        row.putDecimal(mtaTaxCents, 2).put(',');
+        row.putDecimal(tipCents, 2).put(',');
+        row.putDecimal(tollsCents, 2);
+        if (!"columns".equals(broken))
+            row.put(',').putDecimal(totalCents, 2);
+        row.put('\n');
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        return Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+    }
+
+    private static long microDegrees(double degrees) {
+        return Math.round(degrees * 1000000);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+
+    /*
+     * Writes a 32 character hex id, in the style of the MD5 hashed ids of the
+     * original data.
+     */
+    private static void writeHexId(byte[] buf, int offset, long value, long salt) {
+
+        long high = mix(value ^ salt);
+        long low = mix(high + salt);
+        for (int i = 0; i < 16; i++) {
+            buf[offset + i] = HEX[(int) (high >>> (60 - 4 * i)) & 0xf];
+            buf[offset + 16 + i] = HEX[(int) (low >>> (60 - 4 * i)) & 0xf];
+        }
+    }
+
+    /*
+     * A growable byte buffer with helpers to format the fields of a row
+     * without going through Strings.
+     */
+    private static class RowBuffer {
+
+        private byte[] buf;
+        private int size;
+
+        // the date part of the last formatted time, which rarely changes.
+        private long cachedDay = Long.MIN_VALUE;
+        private final byte[] cachedDate = new byte[10];
+
+        RowBuffer(int capacity) {
+            buf = new byte[Math.max(capacity, 256)];
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + extra));
+        }
+
+        RowBuffer put(char c) {
+            ensure(1);
+            buf[size++] = (byte) c;
+            return this;
+        }
+
+        RowBuffer putBytes(byte[] bytes, int offset, int length) {
+            ensure(length);
+            System.arraycopy(bytes, offset, buf, size, length);
+            size += length;
+            return this;
+        }
+
+        RowBuffer putAscii(String value) {
+            ensure(value.length());
+            for (int i = 0; i < value.length(); i++)
+                buf[size++] = (byte) value.charAt(i);
+            return this;
+        }
+
+        /*
+         * Overwrites the byte written 'back' positions ago.
+         */
+        RowBuffer replaceLast(int back, byte value) {
+            buf[size - back] = value;
+            return this;
+        }
+
+        RowBuffer putLong(long value) {
+
+            if (value < 0) {
+                put('-');
+                value = -value;
+            }
+
+            ensure(20);
+            int start = size;
+            do {
+                buf[size++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+
+            // digits were written in reverse.
+            for (int i = start, j = size - 1; i < j; i++, j--) {
+                byte tmp = buf[i];
+                buf[i] = buf[j];
+                buf[j] = tmp;
+            }
+            return this;
+        }
+
+        /*
+         * Writes a fixed point number, given in units of 10^-decimals.
+         */
+        RowBuffer putDecimal(long units, int decimals) {
+
+            if (units < 0) {
+                put('-');
+                units = -units;
+            }
+
+            long scale = 1;
+            for (int i = 0; i < decimals; i++)
+                scale *= 10;
+
+            putLong(units / scale);
+            put('.');
+
+            ensure(decimals);
+            long fraction = units % scale;
+            for (int i = decimals - 1; i >= 0; i--) {
+                buf[size + i] = (byte) ('0' + fraction % 10);
+                fraction /= 10;
+            }
+            size += decimals;
+            return this;
+        }
+
+        /*
+         * Writes a UTC time as 'yyyy-MM-dd HH:mm:ss'.
+         */
+        RowBuffer putDateTime(long epochSecond) {
+
+            long day = Math.floorDiv(epochSecond, DAY_SECONDS);
+            int secondOfDay = (int) Math.floorMod(epochSecond, DAY_SECONDS);
+
+            if (day != cachedDay) {
+                byte[] date = LocalDate.ofEpochDay(day).toString().getBytes();
+                System.arraycopy(date, 0, cachedDate, 0, 10);
+                cachedDay = day;
+            }
+
+            ensure(19);
+            System.arraycopy(cachedDate, 0, buf, size, 10);
+            size += 10;
+            buf[size++] = ' ';
+            putTwoDigits(secondOfDay / 3600);
+            buf[size++] = ':';
+            putTwoDigits(secondOfDay / 60 % 60);
+            buf[size++] = ':';
+            putTwoDigits(secondOfDay % 60);
+            return this;
+        }
+
+        private void putTwoDigits(int value) {
+            buf[size++] = (byte) ('0' + value / 10);
+            buf[size++] = (byte) ('0' + value % 10);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.arrow.flatbuf.Message;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowFileReader;
+import org.apache.arrow.vector.ipc.ReadChannel;
+import org.apache.arrow.vector.ipc.message.ArrowBlock;
+import org.apache.arrow.vector.ipc.message.MessageSerializer;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Reads the files 'ArrowDriverWriter' writes with Arrow's own Java reader,
+ * rather than with anything written to the same understanding of the format.
+ */
+public class ArrowDriverWriterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Driver driver(int i) {
+
+        HashSet<String> taxis = new HashSet<>();
+        for (int t = 0; t <= i % 3; t++)
+            taxis.add(String.format("%032X", 1000 + i * 3 + t));
+        return new Driver(String.format("%032X", i), 1 + i, 10.5f * (i + 1), 300L * (i + 1), taxis);
+    }
+
+    @Test
+    public void writesAFileArrowReadsInBatches()
+        throws IOException {
+
+        List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < 7; i++)
+            drivers.add(driver(i));
+
+        File file = new File(folder.getRoot(), "drivers.arrow");
+        try (ArrowDriverWriter writer = new ArrowDriverWriter(file.getPath(), 3)) {
+            for (Driver driver : drivers)
+                writer.write(driver);
+            assertEquals(7, writer.getRowCount());
+            assertEquals(3, writer.getChunkCount());
+        }
+        assertFalse(new File(folder.getRoot(), "drivers.arrow.tmp").exists());
+
+        try (BufferAllocator allocator = new RootAllocator();
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+
+            VectorSchemaRoot root = reader.getVectorSchemaRoot();
+            assertSchema(root.getSchema());
+
+            List<ArrowBlock> blocks = reader.getRecordBlocks();
+            assertEquals(3, blocks.size());
+            assertEquals(0, reader.getDictionaryBlocks().size());
+
+            int[] batchRows = { 3, 3, 1 };
+            int row = 0;
+            for (int batch = 0; batch < blocks.size(); batch++) {
+
+                assertTrue(reader.loadRecordBatch(blocks.get(batch)));
+                assertEquals(batchRows[batch], root.getRowCount());
+
+                VarCharVector ids = (VarCharVector) root.getVector("id");
+                IntVector trips = (IntVector) root.getVector("trips");
+                IntVector taxis = (IntVector) root.getVector("taxis");
+                Float4Vector revenue = (Float4Vector) root.getVector("revenue");
+                BigIntVector seconds = (BigIntVector) root.getVector("seconds");
+                Float4Vector moneyPerMinute = (Float4Vector) root.getVector("money_per_minute");
+
+                float minRevenue = Float.MAX_VALUE;
+                float maxRevenue = -Float.MAX_VALUE;
+                long maxSeconds = 0;
+                for (int i = 0; i < root.getRowCount(); i++, row++) {
+
+                    Driver driver = drivers.get(row);
+                    assertFalse(ids.isNull(i));
+                    assertEquals(driver.getId(), new String(ids.get(i), StandardCharsets.UTF_8));
+                    assertEquals(driver.getNumTrips(), trips.get(i));
+                    assertEquals(driver.getNumTaxis(), taxis.get(i));
+                    assertEquals(driver.getTotalAmount(), revenue.get(i), 0);
+                    assertEquals(driver.getTimeSpentDriving(), seconds.get(i));
+                    assertEquals(driver.getMoneyPerMinute(), moneyPerMinute.get(i), 0);
+
+                    minRevenue = Math.min(minRevenue, driver.getTotalAmount());
+                    maxRevenue = Math.max(maxRevenue, driver.getTotalAmount());
+                    maxSeconds = Math.max(maxSeconds, driver.getTimeSpentDriving());
+                }
+
+                Map<String, String> stats = batchMetadata(channel, blocks.get(batch));
+                assertEquals(String.valueOf(batchRows[batch]), stats.get("stats.rows"));
+                assertEquals(minRevenue, Float.parseFloat(stats.get("stats.revenue.min")), 0);
+                assertEquals(maxRevenue, Float.parseFloat(stats.get("stats.revenue.max")), 0);
+                assertEquals(String.valueOf(maxSeconds), stats.get("stats.seconds.max"));
+                assertEquals(11, stats.size());
+            }
+            assertEquals(drivers.size(), row);
+
+            double totalRevenue = 0;
+            for (Driver driver : drivers)
+                totalRevenue += driver.getTotalAmount();
+
+            Map<String, String> footer = reader.getMetaData();
+            assertEquals("7", footer.get("stats.rows"));
+            assertEquals("3", footer.get("stats.chunks"));
+            assertEquals(totalRevenue, Double.parseDouble(footer.get("stats.revenue.sum")), 0.005);
+        }
+    }
+
+    @Test
+    public void writesAnEmptyTable()
+        throws IOException {
+
+        File file = new File(folder.getRoot(), "empty.arrow");
+        try (ArrowDriverWriter writer = new ArrowDriverWriter(file.getPath(), 3)) {
+            assertEquals(0, writer.getChunkCount());
+        }
+
+        try (BufferAllocator allocator = new RootAllocator();
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            ArrowFileReader reader = new ArrowFileReader(channel, allocator)) {
+
+            assertSchema(reader.getVectorSchemaRoot().getSchema());
+            assertEquals(0, reader.getRecordBlocks().size());
+            assertFalse(reader.loadNextBatch());
+
+            Map<String, String> footer = reader.getMetaData();
+            assertEquals("0", footer.get("stats.rows"));
+            assertEquals("0", footer.get("stats.chunks"));
+            assertEquals("0.00", footer.get("stats.revenue.sum"));
+        }
+    }
+
+    private static void assertSchema(Schema schema) {
+
+        List<Field> fields = schema.getFields();
+        assertEquals(Arrays.asList("id", "trips", "taxis", "revenue", "seconds", "money_per_minute"),
+            Arrays.asList(fields.stream().map(Field::getName).toArray()));
+
+        ArrowType[] types = {
+            ArrowType.Utf8.INSTANCE,
+            new ArrowType.Int(32, true),
+            new ArrowType.Int(32, true),
+            new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE),
+            new ArrowType.Int(64, true),
+            new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE)
+        };
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(types[i], fields.get(i).getType());
+            assertFalse(fields.get(i).isNullable());
+            assertTrue(fields.get(i).getChildren().isEmpty());
+        }
+    }
+
+    /*
+     * The custom metadata of the record batch message at the given block,
+     * as parsed by Arrow's message reader.
+     */
+    private static Map<String, String> batchMetadata(FileChannel channel, ArrowBlock block)
+        throws IOException {
+
+        long position = channel.position();
+        channel.position(block.getOffset());
+        Message message = MessageSerializer.readMessage(new ReadChannel(channel)).getMessage();
+        channel.position(position);
+
+        Map<String, String> metadata = new HashMap<>();
+        for (int i = 0; i < message.customMetadataLength(); i++)
+            metadata.put(message.customMetadata(i).key(), message.customMetadata(i).value());
+        return metadata;
+    }
+}
@@ -0,0 +1,108 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+public class CellStatsTest {
+
+    private static final int CELLS = 20;
+
+    /*
+     * Trips in a few cells, one of them only a dropoff cell, and some with an
+     * end outside of the grid.
+     */
+    private static CellStats stats() {
+
+        CellStats stats = new CellStats(CELLS);
+        stats.reportTrip(0, 5, 10, 600);
+        stats.reportTrip(0, -1, 2.5f, 60);
+        stats.reportTrip(7, 7, 30, 1200);
+        stats.reportTrip(-1, 12, 99, 60);
+        stats.reportTrip(19, 0, 4, 120);
+        return stats;
+    }
+
+    private static void assertSameCells(CellStats expected, CellStats actual) {
+
+        assertEquals(expected.numCells(), actual.numCells());
+        for (int cell = 0; cell < expected.numCells(); cell++) {
+            assertEquals("cell " + cell, expected.getPickups(cell), actual.getPickups(cell));
+            assertEquals("cell " + cell, expected.getDropoffs(cell), actual.getDropoffs(cell));
+            assertEquals("cell " + cell, expected.getRevenue(cell), actual.getRevenue(cell), 0);
+            assertEquals("cell " + cell, expected.getMoneyPerMinute(cell), actual.getMoneyPerMinute(cell), 0);
+        }
+    }
+
+    @Test
+    public void countsBothEndsOfATrip() {
+
+        CellStats stats = stats();
+        assertEquals(2, stats.getPickups(0));
+        assertEquals(1, stats.getDropoffs(0));
+        assertEquals(12.5, stats.getRevenue(0), 1e-9);
+        assertEquals(12.5 / 11, stats.getMoneyPerMinute(0), 1e-9);
+        assertEquals(0, stats.getPickups(12));
+        assertEquals(1, stats.getDropoffs(12));
+        assertEquals(0, stats.getMoneyPerMinute(12), 0);
+        assertArrayEquals(new int[] { 7, 0, 19 }, stats.topCells(10));
+        assertArrayEquals(new int[] { 7 }, stats.topCells(1));
+    }
+
+    @Test
+    public void splitsIntoPartitionsThatAddBackUp() {
+
+        CellStats stats = stats();
+        CellStats even = stats.partition(0, 2);
+        CellStats odd = stats.partition(1, 2);
+
+        for (int cell = 0; cell < CELLS; cell++) {
+            CellStats owner = cell % 2 == 0 ? even : odd;
+            CellStats other = cell % 2 == 0 ? odd : even;
+            assertEquals(stats.getPickups(cell), owner.getPickups(cell));
+            assertEquals(stats.getDropoffs(cell), owner.getDropoffs(cell));
+            assertEquals(0, other.getPickups(cell));
+            assertEquals(0, other.getDropoffs(cell));
+            assertEquals(0, other.getRevenue(cell), 0);
+        }
+
+        CellStats combined = new CellStats(CELLS);
+        combined.add(even);
+        combined.add(odd);
+        assertSameCells(stats, combined);
+        assertArrayEquals(stats.topCells(10), combined.topCells(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void refusesToAddAnotherGrid() {
+        stats().add(new CellStats(CELLS + 1));
+    }
+
+    @Test
+    public void survivesAKryoRoundTrip() {
+
+        for (CellStats stats : new CellStats[] { stats(), stats().partition(1, 2), new CellStats(CELLS) }) {
+
+            Kryo kryo = KryoPool.obtain();
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (Output output = new Output(bytes)) {
+                    kryo.writeObject(output, stats);
+                }
+                try (Input input = new Input(bytes.toByteArray())) {
+                    assertSameCells(stats, kryo.readObject(input, CellStats.class));
+                }
+            }
+            finally {
+                KryoPool.free(kryo);
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DriverCombinerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the records added, in order: with at most 3 drivers in memory, each
+    // 4th new driver spills a run, so "A" is in all three runs and in the
+    // table left over when finishing, and "B" in two runs and the table.
+    private static final String[] IDS = {
+        "A", "B", "C", "D",
+        "A", "B", "E", "F",
+        "A", "C", "E", "G",
+        "A", "B"
+    };
+
+    private static Driver record(int i) {
+
+        HashSet<String> taxis = new HashSet<>(Arrays.asList("taxi-" + i, "taxi-" + (i % 3)));
+        return new Driver(IDS[i], i + 1, 1.25f * (i + 1), 60L * (i + 1), taxis);
+    }
+
+    @Test
+    public void combinesEveryDriverAcrossSpilledRuns()
+        throws IOException {
+
+        DriverCombiner combiner = new DriverCombiner(3, folder.getRoot());
+        HashMap<String, Driver> expected = new HashMap<>();
+        for (int i = 0; i < IDS.length; i++) {
+            combiner.add(record(i));
+            Driver known = expected.putIfAbsent(IDS[i], record(i));
+            if (known != null)
+                known.merge(record(i));
+        }
+        assertEquals(3, combiner.getRunCount());
+        assertEquals(IDS.length, combiner.getRecordsAdded());
+        assertEquals(3, folder.getRoot().listFiles().length);
+
+        HashMap<String, Driver> actual = new HashMap<>();
+        combiner.finish(driver -> assertNull("handed out twice: " + driver.getId(), actual.put(driver.getId(), driver)));
+
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Driver driver : expected.values()) {
+
+            Driver combined = actual.get(driver.getId());
+            assertEquals(driver.getNumTrips(), combined.getNumTrips());
+            assertEquals(driver.getTotalAmount(), combined.getTotalAmount(), 0.001);
+            assertEquals(driver.getTimeSpentDriving(), combined.getTimeSpentDriving());
+            assertEquals(driver.getTaxiIds(), combined.getTaxiIds());
+            assertEquals(driver.getTaxiIds().size(), combined.getNumTaxis());
+        }
+
+        // the table left over was spilled as a 4th run, and all are gone.
+        assertEquals(4, combiner.getRunCount());
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void combinesInMemoryWithoutSpilling()
+        throws IOException {
+
+        DriverCombiner combiner = new DriverCombiner(100, folder.getRoot());
+        for (int i = 0; i < IDS.length; i++)
+            combiner.add(record(i));
+
+        HashMap<String, Driver> actual = new HashMap<>();
+        combiner.finish(driver -> assertNull(actual.put(driver.getId(), driver)));
+
+        assertEquals(new HashSet<>(Arrays.asList(IDS)), actual.keySet());
+        assertEquals(1 + 5 + 9 + 13, actual.get("A").getNumTrips());
+        assertEquals(0, combiner.getRunCount());
+        assertEquals(0, folder.getRoot().listFiles().length);
+    }
+
+    @Test
+    public void deletesTheRunsWhenTheMergeFails()
+        throws IOException {
+
+        DriverCombiner combiner = new DriverCombiner(3, folder.getRoot());
+        for (int i = 0; i < IDS.length; i++)
+            combiner.add(record(i));
+
+        try {
+            combiner.finish(driver -> {
+                throw new IllegalStateException("consumer failed");
+            });
+            fail("the consumer's failure was swallowed");
+        }
+        catch (IllegalStateException e) {
+            assertEquals(0, folder.getRoot().listFiles().length);
+        }
+    }
+}
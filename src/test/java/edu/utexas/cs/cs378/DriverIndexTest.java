@@ -0,0 +1,152 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DriverIndexTest {
+
+    /*
+     * A driver whose $/min is its total amount, as it drove for a minute.
+     */
+    private static Driver driver(String id, float moneyPerMinute) {
+        return new Driver(id, 1, moneyPerMinute, 60, new HashSet<>(Arrays.asList("taxi")));
+    }
+
+    private static double value(DriverIndex index, String metric, int driver) {
+
+        switch (metric) {
+            case "moneyPerMinute":
+                return index.getMoneyPerMinute(driver);
+            case "totalAmount":
+                return index.getTotalAmount(driver);
+            case "trips":
+                return index.getNumTrips(driver);
+            case "taxis":
+                return index.getNumTaxis(driver);
+            default:
+                return index.getTimeSpentDriving(driver);
+        }
+    }
+
+    /*
+     * Values of both signs and of any size, so that the keys packed with the
+     * driver's position sort the same way as the values themselves.
+     */
+    @Test
+    public void ranksEveryMetricInOrder() {
+
+        Random random = new Random(42);
+        List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+
+            HashSet<String> taxis = new HashSet<>();
+            for (int taxi = random.nextInt(5); taxi >= 0; taxi--)
+                taxis.add("taxi-" + random.nextInt(100));
+            float amount = (random.nextFloat() - 0.2f) * (random.nextBoolean() ? 100 : 1e6f);
+            long seconds = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(Integer.MAX_VALUE);
+            drivers.add(new Driver("driver-" + i, random.nextInt(1000), amount, seconds, taxis));
+        }
+
+        DriverIndex index = DriverIndex.fromDrivers(drivers);
+        for (String metric : DriverIndex.METRICS) {
+
+            int[] top = index.top(metric, drivers.size());
+            HashSet<Integer> seen = new HashSet<>();
+            for (int driver : top)
+                seen.add(driver);
+            assertEquals(drivers.size(), seen.size());
+            for (int rank = 1; rank < top.length; rank++)
+                assertTrue(metric + " out of order at rank " + rank,
+                    value(index, metric, top[rank - 1]) >= value(index, metric, top[rank]));
+        }
+    }
+
+    @Test
+    public void cutsTiesAtTheKthDriver() {
+
+        List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            drivers.add(driver("tied-" + i, 5));
+        drivers.add(driver("best", 6));
+        drivers.add(driver("worst", 4));
+
+        DriverIndex index = DriverIndex.fromDrivers(drivers);
+        int[] top = index.top("moneyPerMinute", 4);
+
+        assertEquals(4, top.length);
+        assertEquals("best", index.getId(top[0]));
+        HashSet<String> tied = new HashSet<>();
+        for (int rank = 1; rank < top.length; rank++) {
+            assertEquals(5, index.getMoneyPerMinute(top[rank]), 0);
+            tied.add(index.getId(top[rank]));
+        }
+        assertEquals(3, tied.size());
+
+        assertEquals(12, index.top("moneyPerMinute", 100).length);
+        assertEquals(0, index.top("moneyPerMinute", 0).length);
+        assertEquals(0, index.top("moneyPerMinute", -1).length);
+        try {
+            index.top("tips", 10);
+            fail("accepted an unknown metric");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void includesBothBoundsOfARange() {
+
+        List<Driver> drivers = new ArrayList<>();
+        float[] rates = { -1, 0, 1, 2, 2, 2, 3, 4 };
+        for (int i = 0; i < rates.length; i++)
+            drivers.add(driver("driver-" + i, rates[i]));
+        DriverIndex index = DriverIndex.fromDrivers(drivers);
+
+        assertRange(index, 2, 3, 4);
+        assertRange(index, -1, 4, 8);
+        assertRange(index, Math.nextUp(2f), 3, 1);
+        assertRange(index, 2, Math.nextDown(2f), 0);
+        assertRange(index, -10, Math.nextDown(-1f), 0);
+        assertRange(index, Math.nextUp(4f), 10, 0);
+        assertRange(index, 3, 2, 0);
+
+        // the limit only cuts the list, in ascending order, not the count.
+        int[] range = index.moneyPerMinuteRange(0, 4, 3);
+        assertEquals(7, index.countMoneyPerMinuteRange(0, 4));
+        assertEquals(3, range.length);
+        assertArrayEquals(new float[] { 0, 1, 2 }, new float[] {
+            index.getMoneyPerMinute(range[0]), index.getMoneyPerMinute(range[1]), index.getMoneyPerMinute(range[2]) }, 0);
+    }
+
+    @Test
+    public void findsDriversById() {
+
+        DriverIndex index = DriverIndex.fromDrivers(Arrays.asList(driver("a", 1), driver("b", 2)));
+        assertEquals("b", index.getId(index.find("b")));
+        assertEquals(2, index.getMoneyPerMinute(index.find("b")), 0);
+        assertEquals(-1, index.find("c"));
+    }
+
+    private static void assertRange(DriverIndex index, float min, float max, int count) {
+
+        int[] range = index.moneyPerMinuteRange(min, max, 100);
+        assertEquals(min + ".." + max, count, index.countMoneyPerMinuteRange(min, max));
+        assertEquals(min + ".." + max, count, range.length);
+        for (int rank = 0; rank < range.length; rank++) {
+            float rate = index.getMoneyPerMinute(range[rank]);
+            assertTrue(rate >= min && rate <= max);
+            assertTrue(rank == 0 || index.getMoneyPerMinute(range[rank - 1]) <= rate);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DriverSnapshotTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static String hexId(int value) {
+        return String.format("%032X", value * 0x9e3779b1L);
+    }
+
+    @Test
+    public void findsEveryDriverAfterARoundTrip()
+        throws IOException {
+
+        List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            HashSet<String> taxis = new HashSet<>(Arrays.asList(hexId(i + 1000), hexId(i + 2000)));
+            drivers.add(new Driver(hexId(i), i + 1, i * 2.5f, i * 60L, taxis));
+        }
+        Collections.shuffle(drivers);
+
+        String file = new File(folder.getRoot(), "drivers.snapshot").getPath();
+        DriverSnapshot.write(file, drivers, Collections.emptyList());
+
+        try (DriverSnapshot snapshot = DriverSnapshot.open(file)) {
+
+            assertEquals(500, snapshot.size());
+            for (Driver driver : drivers) {
+
+                int index = snapshot.find(driver.getId());
+                assertTrue("missing " + driver.getId(), index >= 0);
+                assertEquals(driver.getId(), snapshot.getId(index));
+
+                Driver read = snapshot.getDriver(index);
+                assertEquals(driver.getNumTrips(), read.getNumTrips());
+                assertEquals(driver.getTotalAmount(), read.getTotalAmount(), 0);
+                assertEquals(driver.getTimeSpentDriving(), read.getTimeSpentDriving());
+                assertEquals(driver.getTaxiIds(), read.getTaxiIds());
+            }
+            assertEquals(-1, snapshot.find(hexId(500)));
+            assertEquals(-1, snapshot.find(hexId(0).substring(1)));
+        }
+    }
+
+    @Test
+    public void refusesToWriteIdsThatDontFit()
+        throws IOException {
+
+        String file = new File(folder.getRoot(), "drivers.snapshot").getPath();
+        String[] badIds = { hexId(1) + "0", hexId(1).substring(1) + "\u00e9" };
+        for (String badId : badIds) {
+
+            // as a driver, and as one of a driver's taxis.
+            List<Driver> drivers = Arrays.asList(new Driver(badId, 1, 1, 60, new HashSet<>()),
+                new Driver(hexId(2), 1, 1, 60, new HashSet<>(Collections.singletonList(badId))));
+            for (Driver driver : drivers) {
+                try {
+                    DriverSnapshot.write(file, Collections.singletonList(driver), Collections.emptyList());
+                    fail("wrote " + badId);
+                }
+                catch (IOException e) {
+                    assertFalse(DriverSnapshot.exists(file));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void skipsOnlyUnchangedInputFiles()
+        throws IOException {
+
+        File first = folder.newFile("first.csv");
+        File second = folder.newFile("second.csv");
+        Files.write(first.toPath(), "first".getBytes(StandardCharsets.US_ASCII));
+        Files.write(second.toPath(), "second".getBytes(StandardCharsets.US_ASCII));
+
+        String snapshot = new File(folder.getRoot(), "drivers.snapshot").getPath();
+        List<String> files = Arrays.asList(first.getPath(), second.getPath());
+        assertEquals(DriverSnapshot.absolutePaths(files), DriverSnapshot.newInputFiles(snapshot, files));
+
+        DriverSnapshot.write(snapshot, Collections.emptyList(), InputFile.of(Collections.singletonList(first.getPath())));
+        try (DriverSnapshot read = DriverSnapshot.open(snapshot)) {
+            assertEquals(InputFile.of(Collections.singletonList(first.getPath())), read.getInputFiles());
+        }
+        assertEquals(DriverSnapshot.absolutePaths(Collections.singletonList(second.getPath())),
+            DriverSnapshot.newInputFiles(snapshot, files));
+
+        // the same contents under a new path.
+        File moved = new File(folder.getRoot(), "moved.csv");
+        Files.copy(first.toPath(), moved.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        assertRejected(snapshot, moved.getPath());
+
+        // new contents under the same path.
+        Files.write(first.toPath(), "rewritten".getBytes(StandardCharsets.US_ASCII));
+        assertRejected(snapshot, first.getPath());
+    }
+
+    @Test
+    public void refusesFilesAJobReadTwice()
+        throws IOException {
+
+        File first = folder.newFile("first.csv");
+        File second = folder.newFile("second.csv");
+        File copy = new File(folder.getRoot(), "copy.csv");
+        Files.write(first.toPath(), "first".getBytes(StandardCharsets.US_ASCII));
+        Files.write(second.toPath(), "second".getBytes(StandardCharsets.US_ASCII));
+        Files.copy(first.toPath(), copy.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+
+        String snapshot = new File(folder.getRoot(), "drivers.snapshot").getPath();
+        List<InputFile> held = InputFile.of(Collections.singletonList(first.getPath()));
+        DriverSnapshot.checkNotHeld(snapshot, held, InputFile.of(Collections.singletonList(second.getPath())));
+
+        for (File file : Arrays.asList(first, copy)) {
+            try {
+                DriverSnapshot.checkNotHeld(snapshot, held, InputFile.of(Arrays.asList(second.getPath(), file.getPath())));
+                fail("accepted " + file);
+            }
+            catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    private static void assertRejected(String snapshot, String file) {
+        try {
+            DriverSnapshot.newInputFiles(snapshot, Collections.singletonList(file));
+            fail("accepted " + file);
+        }
+        catch (IOException e) {
+            // expected
+        }
+    }
+}
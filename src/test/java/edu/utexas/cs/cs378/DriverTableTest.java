@@ -0,0 +1,158 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class DriverTableTest {
+
+    private static String hexId(int value, long salt) {
+        return String.format("%032X", (value + 1) * salt & Long.MAX_VALUE);
+    }
+
+    private static String driver(int value) {
+        return hexId(value, 0x9e3779b97f4a7c15L);
+    }
+
+    private static String taxi(int value) {
+        return hexId(value, 0xc2b2ae3d27d4eb4fL);
+    }
+
+    /*
+     * A valid trip of the given driver and taxi, fare and duration (30 s to
+     * under an hour).
+     */
+    private static Trip trip(String driver, String taxi, int fareCents, int seconds) {
+        return new Trip(String.format(
+            "%s,%s,2013-01-01 00:00:00,2013-01-01 00:%02d:%02d,%d,0.44,-73.980000,40.750000,-73.970000,40.760000,"
+                + "CSH,%d.%02d,0.00,0.50,0.00,0.00,%d.%02d",
+            taxi, driver, seconds / 60, seconds % 60, seconds, fareCents / 100, fareCents % 100,
+            (fareCents + 50) / 100, (fareCents + 50) % 100));
+    }
+
+    @Test
+    public void keepsEveryTripThroughSeveralResizes() {
+
+        // 20000 drivers with 3 taxis each grow the slots, both dictionaries
+        // and the (slot, taxi) set a few times over.
+        DriverTable table = new DriverTable(2);
+        for (int round = 0; round < 2; round++) {
+            for (int d = 0; d < 20000; d++) {
+                for (int t = 0; t < 3; t++)
+                    table.reportTrip(trip(driver(d), taxi(d * 3 + t), 1000, 600));
+            }
+        }
+
+        HashMap<String, Driver> drivers = new HashMap<>();
+        ArrayList<ArrayList<Driver>> partitions = table.partition();
+        assertEquals(2, partitions.size());
+        for (int i = 0; i < partitions.size(); i++) {
+            for (Driver driver : partitions.get(i)) {
+                assertEquals(i, DriverTable.partitionOf(driver.getId(), 2));
+                assertFalse(driver.isPartial());
+                assertEquals(null, drivers.put(driver.getId(), driver));
+            }
+        }
+
+        assertEquals(20000, drivers.size());
+        for (int d = 0; d < 20000; d++) {
+            Driver driver = drivers.get(driver(d));
+            assertEquals(6, driver.getNumTrips());
+            assertEquals(63, driver.getTotalAmount(), 0.001);
+            assertEquals(3600, driver.getTimeSpentDriving());
+            assertEquals(new HashSet<>(Arrays.asList(taxi(d * 3), taxi(d * 3 + 1), taxi(d * 3 + 2))),
+                driver.getTaxiIds());
+            assertEquals(3, driver.getNumTaxis());
+        }
+    }
+
+    @Test
+    public void combinesTheTablesOfEveryWorker() {
+
+        int numDrivers = 200;
+        int numTaxis = 50;
+        HashSet<String> hot = new HashSet<>(Arrays.asList(driver(0), driver(1), driver(7)));
+
+        DriverTable[] tables = new DriverTable[3];
+        for (int i = 0; i < tables.length; i++)
+            tables[i] = new DriverTable(2);
+
+        HashMap<String, Driver> expected = new HashMap<>();
+        SplittableRandom random = new SplittableRandom(4);
+        for (int i = 0; i < 20000; i++) {
+
+            // the plan is only known after a while, as on a mapper.
+            if (i == 3000) {
+                for (DriverTable table : tables)
+                    table.setHotDrivers(hot);
+            }
+
+            // the hot drivers get a good share of the trips, spread over
+            // every worker like the others, and driver 7 drives one taxi.
+            boolean seven = random.nextInt(4) == 0;
+            String driverId = driver(seven ? 7 : random.nextInt(numDrivers));
+            String taxiId = taxi(seven ? 0 : random.nextInt(numTaxis));
+            Trip trip = trip(driverId, taxiId, 250 + random.nextInt(5000), 30 + random.nextInt(3000));
+            tables[random.nextInt(tables.length)].reportTrip(trip);
+
+            expected.computeIfAbsent(driverId, Driver::new).reportTrip(trip);
+        }
+
+        ArrayList<ArrayList<Driver>> partitions = DriverTable.partition(tables);
+        assertEquals(2, partitions.size());
+
+        HashMap<String, Driver> actual = new HashMap<>();
+        HashMap<String, int[]> partTrips = new HashMap<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            for (Driver driver : partitions.get(i)) {
+
+                // a hot driver has at most one part per reducer, even with
+                // its trips from before the plan; the others are whole.
+                if (hot.contains(driver.getId())) {
+                    assertTrue(driver.isPartial());
+                    int[] trips = partTrips.computeIfAbsent(driver.getId(), id -> new int[2]);
+                    assertEquals(0, trips[i]);
+                    trips[i] = driver.getNumTrips();
+                }
+                else {
+                    assertFalse(driver.isPartial());
+                    assertEquals(i, DriverTable.partitionOf(driver.getId(), 2));
+                    assertEquals(null, actual.get(driver.getId()));
+                }
+
+                Driver known = actual.putIfAbsent(driver.getId(), driver);
+                if (known != null)
+                    known.merge(driver);
+            }
+        }
+
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Driver driver : expected.values())
+            assertSameTotals(driver, actual.get(driver.getId()));
+
+        // driver 7 is split evenly though all of its trips are in one taxi:
+        // each worker's parts differ by at most a trip once the trips from
+        // before the plan are caught up with.
+        int[] seven = partTrips.get(driver(7));
+        assertTrue(seven[0] > 0 && seven[1] > 0);
+        assertTrue(Arrays.toString(seven), Math.abs(seven[0] - seven[1]) <= tables.length);
+    }
+
+    private static void assertSameTotals(Driver expected, Driver actual) {
+
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getNumTrips(), actual.getNumTrips());
+        assertEquals(expected.getTotalAmount(), actual.getTotalAmount(), expected.getTotalAmount() * 1e-5);
+        assertEquals(expected.getTimeSpentDriving(), actual.getTimeSpentDriving());
+        assertEquals(expected.getTaxiIds(), actual.getTaxiIds());
+        assertEquals(expected.getTaxiIds().size(), actual.getNumTaxis());
+    }
+}
@@ -0,0 +1,120 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.junit.Test;
+
+public class IdDictionaryTest {
+
+    private static String hexId(long high, long low) {
+        return String.format("%016X%016X", high, low);
+    }
+
+    @Test
+    public void keepsEveryIdThroughSeveralResizes() {
+
+        IdDictionary dictionary = new IdDictionary(8);
+        long initialBytes = dictionary.offHeapBytes();
+
+        SplittableRandom random = new SplittableRandom(1);
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 100000; i++)
+            ids.add(hexId(random.nextLong(), random.nextLong()));
+
+        for (int i = 0; i < ids.size(); i++)
+            assertEquals(i, dictionary.idOf(ids.get(i), 0, 32));
+
+        // 16 slots to start with, so that's over a dozen resizes.
+        assertEquals(ids.size(), dictionary.size());
+        assertTrue(dictionary.offHeapBytes() >= initialBytes << 12);
+
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i, dictionary.idOf(ids.get(i), 0, 32));
+            assertEquals(ids.get(i), dictionary.getId(i));
+        }
+        assertEquals(ids.size(), dictionary.size());
+    }
+
+    @Test
+    public void probesPastCollidingHashes() {
+
+        // ids whose hashes share their low 16 bits all land in the same slot
+        // of any table of up to 65536 slots.
+        SplittableRandom random = new SplittableRandom(2);
+        List<String> ids = new ArrayList<>();
+        while (ids.size() < 40) {
+            long high = random.nextLong();
+            long low = random.nextLong();
+            if ((IdDictionary.hash(high, low) & 0xffff) == 0)
+                ids.add(hexId(high, low));
+        }
+
+        IdDictionary dictionary = new IdDictionary(8);
+        for (int i = 0; i < ids.size(); i++)
+            assertEquals(i, dictionary.idOf(ids.get(i), 0, 32));
+
+        for (int i = 0; i < ids.size(); i++) {
+            assertEquals(i, dictionary.idOf(ids.get(i), 0, 32));
+            assertEquals(ids.get(i), dictionary.getId(i));
+        }
+        assertEquals(ids.size(), dictionary.size());
+    }
+
+    @Test
+    public void findsIdsInPlaceWithinALine() {
+
+        String driver = hexId(0x0123456789ABCDEFL, 0xFEDCBA9876543210L);
+        String taxi = hexId(42, 43);
+        String line = taxi + "," + driver + ",2013-01-01 00:00:00";
+
+        IdDictionary dictionary = new IdDictionary(8);
+        int id = dictionary.idOf(line, 33, 65);
+        assertEquals(id, dictionary.idOf(driver, 0, 32));
+        assertNotEquals(id, dictionary.idOf(line, 0, 32));
+        assertEquals(driver, dictionary.getId(id));
+        assertEquals(taxi, dictionary.getId(dictionary.idOf(taxi, 0, 32)));
+    }
+
+    @Test
+    public void keepsIrregularIdsApart() {
+
+        String upper = hexId(0xABCDEF0123456789L, 0x0A0B0C0D0E0F1011L);
+        String[] irregular = {
+            upper.toLowerCase(),                  // lower case hex
+            upper.substring(0, 31) + "G",         // not hex
+            upper.substring(0, 31) + "-",
+            upper.substring(1),                   // too short
+            upper + "0",                          // too long
+            ""
+        };
+
+        IdDictionary dictionary = new IdDictionary(8);
+        int regular = dictionary.idOf(upper, 0, 32);
+        int[] ids = new int[irregular.length];
+        for (int i = 0; i < irregular.length; i++)
+            ids[i] = dictionary.idOf(irregular[i], 0, irregular[i].length());
+
+        // the irregular ids keep their dense ids, and their Strings, while
+        // the table grows around them.
+        SplittableRandom random = new SplittableRandom(3);
+        for (int i = 0; i < 1000; i++)
+            dictionary.idOf(hexId(random.nextLong(), random.nextLong()), 0, 32);
+
+        assertEquals(regular, dictionary.idOf(upper, 0, 32));
+        assertEquals(upper, dictionary.getId(regular));
+        for (int i = 0; i < irregular.length; i++) {
+            assertNotEquals(regular, ids[i]);
+            assertEquals(ids[i], dictionary.idOf(irregular[i], 0, irregular[i].length()));
+            assertEquals(irregular[i], dictionary.getId(ids[i]));
+            for (int j = 0; j < i; j++)
+                assertNotEquals(ids[j], ids[i]);
+        }
+        assertEquals(1 + irregular.length + 1000, dictionary.size());
+    }
+}
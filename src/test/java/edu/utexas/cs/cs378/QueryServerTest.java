@@ -0,0 +1,113 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Scanner;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class QueryServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+
+    @After
+    public void stop() {
+        if (server != null)
+            server.stop(0);
+    }
+
+    /*
+     * Drivers "driver-0".."driver-<n-1>", with $/min and trips growing with
+     * their number.
+     */
+    private static void writeSnapshot(String file, int n)
+        throws IOException {
+
+        List<Driver> drivers = new ArrayList<>();
+        for (int i = 0; i < n; i++)
+            drivers.add(new Driver("driver-" + i, i + 1, i, 60, new HashSet<>(Collections.singletonList("taxi"))));
+        DriverSnapshot.write(file, drivers, Collections.emptyList());
+    }
+
+    private String[] request(String method, String path)
+        throws IOException {
+
+        URL url = new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod(method);
+
+        int status = connection.getResponseCode();
+        try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            Scanner scanner = new Scanner(in, "UTF-8")) {
+            return new String[] { String.valueOf(status), scanner.useDelimiter("\\A").next() };
+        }
+    }
+
+    @Test
+    public void answersTopAndRangeQueries()
+        throws IOException {
+
+        String snapshot = new File(folder.getRoot(), "drivers.snapshot").getPath();
+        writeSnapshot(snapshot, 5);
+        try (DriverSnapshot read = DriverSnapshot.open(snapshot)) {
+            server = QueryServer.start(InetAddress.getLoopbackAddress(), 0, DriverIndex.fromSnapshot(read), snapshot);
+        }
+
+        String[] top = request("GET", "/top?metric=trips&k=2");
+        assertEquals("200", top[0]);
+        assertTrue(top[1], top[1].indexOf("\"driver-4\"") < top[1].indexOf("\"driver-3\""));
+        assertTrue(top[1], !top[1].contains("\"driver-2\""));
+
+        String[] range = request("GET", "/range?min=1&max=3");
+        assertTrue(range[1], range[1].startsWith("{\"count\":3,"));
+
+        assertEquals("400", request("GET", "/top?metric=tips")[0]);
+        assertEquals("405", request("GET", "/reload")[0]);
+    }
+
+    @Test
+    public void keepsTheOldDriversIfAReloadFails()
+        throws IOException {
+
+        String snapshot = new File(folder.getRoot(), "drivers.snapshot").getPath();
+        writeSnapshot(snapshot, 3);
+        try (DriverSnapshot read = DriverSnapshot.open(snapshot)) {
+            server = QueryServer.start(InetAddress.getLoopbackAddress(), 0, DriverIndex.fromSnapshot(read), snapshot);
+        }
+
+        writeSnapshot(snapshot, 4);
+        String[] reload = request("POST", "/reload");
+        assertEquals("200", reload[0]);
+        assertTrue(reload[1], reload[1].startsWith("{\"drivers\":4,"));
+
+        // cut the snapshot off in the middle of its driver records.
+        try (RandomAccessFile file = new RandomAccessFile(snapshot, "rw")) {
+            file.setLength(100);
+        }
+        assertEquals("500", request("POST", "/reload")[0]);
+
+        String[] range = request("GET", "/range");
+        assertEquals("200", range[0]);
+        assertTrue(range[1], range[1].startsWith("{\"count\":4,"));
+    }
+}
@@ -0,0 +1,79 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class SpatialGridTest {
+
+    // the bounds of the grid, as in 'SpatialGrid'.
+    private static final float MIN_LONGITUDE = -74.27f;
+    private static final float MAX_LONGITUDE = -73.68f;
+    private static final float MIN_LATITUDE = 40.48f;
+    private static final float MAX_LATITUDE = 40.93f;
+
+    @Test
+    public void mapsTheCornersToTheCornerCells() {
+
+        SpatialGrid grid = new SpatialGrid(3, 4);
+        float lastLongitude = Math.nextDown(MAX_LONGITUDE);
+        float lastLatitude = Math.nextDown(MAX_LATITUDE);
+
+        assertEquals(0, grid.cellOf(MIN_LONGITUDE, MIN_LATITUDE));
+        assertEquals(3, grid.cellOf(lastLongitude, MIN_LATITUDE));
+        assertEquals(8, grid.cellOf(MIN_LONGITUDE, lastLatitude));
+        assertEquals(11, grid.cellOf(lastLongitude, lastLatitude));
+    }
+
+    @Test
+    public void mapsTheCenterOfEveryCellToItsId() {
+
+        SpatialGrid grid = SpatialGrid.parse("3X4");
+        assertEquals(12, grid.numCells());
+
+        for (int row = 0; row < 3; row++) {
+            for (int col = 0; col < 4; col++) {
+                float longitude = MIN_LONGITUDE + (col + 0.5f) * (MAX_LONGITUDE - MIN_LONGITUDE) / 4;
+                float latitude = MIN_LATITUDE + (row + 0.5f) * (MAX_LATITUDE - MIN_LATITUDE) / 3;
+                assertEquals(row * 4 + col, grid.cellOf(longitude, latitude));
+            }
+        }
+    }
+
+    @Test
+    public void leavesPointsOutsideOfTheGridOut() {
+
+        SpatialGrid grid = SpatialGrid.parse(SpatialGrid.DEFAULT_SIZE);
+        float longitude = (MIN_LONGITUDE + MAX_LONGITUDE) / 2;
+        float latitude = (MIN_LATITUDE + MAX_LATITUDE) / 2;
+
+        float[][] outside = {
+            { 0, 0 },
+            { MAX_LONGITUDE, latitude },
+            { longitude, MAX_LATITUDE },
+            { Math.nextDown(MIN_LONGITUDE), latitude },
+            { longitude, Math.nextDown(MIN_LATITUDE) },
+            { Float.NaN, latitude },
+            { longitude, Float.NaN },
+            { Float.NEGATIVE_INFINITY, latitude },
+            { longitude, Float.POSITIVE_INFINITY },
+        };
+        for (float[] point : outside)
+            assertEquals(point[0] + "," + point[1], -1, grid.cellOf(point[0], point[1]));
+    }
+
+    @Test
+    public void rejectsBadSizes() {
+
+        for (String size : new String[] { "3", "3x", "x4", "0x4", "3x-1", "3x4x5", "threexfour" }) {
+            try {
+                SpatialGrid.parse(size);
+                fail("accepted " + size);
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TripDataGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final int ROWS = 2000;
+
+    @Test
+    public void writesOnlyValidRowsByDefault()
+        throws Exception {
+
+        List<String> lines = generate(new TripDataGenerator(ROWS), "valid.csv");
+        assertEquals(ROWS, lines.size());
+        for (String line : lines)
+            new Trip(line);
+    }
+
+    @Test
+    public void breaksEveryRowOfARuleSetToOne()
+        throws Exception {
+
+        for (String rule : TripDataGenerator.RULES) {
+
+            TripDataGenerator generator = new TripDataGenerator(ROWS);
+            generator.setInvalidFraction(rule, 1);
+            List<String> lines = generate(generator, rule + ".csv");
+
+            assertEquals(rule, ROWS, lines.size());
+            for (String line : lines) {
+                try {
+                    new Trip(line);
+                    fail("rule " + rule + " produced a valid row: " + line);
+                }
+                catch (IllegalArgumentException e) {
+                    // expected
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsUnknownRules() {
+        try {
+            new TripDataGenerator(ROWS).setInvalidFraction("no-such-rule", 1);
+            fail("accepted an unknown rule");
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /*
+     * More rows than a chunk, so that several threads generate them.
+     */
+    @Test
+    public void dependsOnlyOnTheSeed()
+        throws Exception {
+
+        byte[] oneThread = generateBytes(42, 1, "one-thread.csv");
+        byte[] fourThreads = generateBytes(42, 4, "four-threads.csv");
+        byte[] otherSeed = generateBytes(43, 4, "other-seed.csv");
+
+        assertArrayEquals(oneThread, fourThreads);
+        assertFalse(Arrays.equals(oneThread, otherSeed));
+    }
+
+    private byte[] generateBytes(long seed, int threads, String name)
+        throws Exception {
+
+        TripDataGenerator generator = new TripDataGenerator(120000);
+        generator.setDrivers(500);
+        generator.setSeed(seed);
+        generator.setThreads(threads);
+        for (String rule : TripDataGenerator.RULES)
+            generator.setInvalidFraction(rule, 0.01);
+
+        File file = new File(folder.getRoot(), name);
+        generator.write(file.getPath());
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private List<String> generate(TripDataGenerator generator, String name)
+        throws Exception {
+
+        generator.setDrivers(500);
+        File file = new File(folder.getRoot(), name);
+        generator.write(file.getPath());
+        return Files.readAllLines(file.toPath(), StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,63 @@
+package edu.utexas.cs.cs378;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+public class TripTest {
+
+    private static final String TRIP = "%s,%s,2013-01-01 00:00:00,2013-01-01 00:02:00,120,0.44,"
+        + "-73.980000,40.750000,-73.970000,40.760000,CSH,3.50,0.00,0.50,0.00,0.00,4.00";
+
+    private static final String DRIVER = "0123456789ABCDEF0123456789ABCDEF";
+    private static final String TAXI = "FEDCBA9876543210FEDCBA9876543210";
+
+    @Test
+    public void readsTheFieldsOfAValidLine() {
+
+        String line = String.format(TRIP, TAXI, DRIVER);
+        Trip trip = new Trip(line);
+
+        assertEquals(DRIVER, trip.getDriver());
+        assertEquals(TAXI, trip.getTaxi());
+        assertEquals(DRIVER, line.substring(trip.getDriverStart(), trip.getDriverEnd()));
+        assertEquals(TAXI, line.substring(trip.getTaxiStart(), trip.getTaxiEnd()));
+        assertEquals(4.00f, trip.getAmount(), 0);
+        assertEquals(120, trip.getTripDuration());
+        assertEquals(-73.98f, trip.getPickupLongitude(), 0);
+        assertEquals(40.76f, trip.getDropoffLatitude(), 0);
+    }
+
+    /*
+     * Ids aren't validated: ids that don't fit a snapshot record are only
+     * refused when the snapshot is written.
+     */
+    @Test
+    public void keepsIdsOfAnyLengthAndCharacters() {
+
+        String[] ids = { DRIVER + "0", DRIVER.substring(1), DRIVER.substring(1) + "\u00e9", "" };
+        for (String id : ids) {
+            assertEquals(id, new Trip(String.format(TRIP, TAXI, id)).getDriver());
+            assertEquals(id, new Trip(String.format(TRIP, id, DRIVER)).getTaxi());
+        }
+    }
+
+    @Test
+    public void rejectsLinesWithTheWrongNumberOfColumns() {
+
+        String line = String.format(TRIP, TAXI, DRIVER);
+        assertInvalid(line + ",0.00");
+        assertInvalid(line.substring(0, line.lastIndexOf(',')));
+    }
+
+    private static void assertInvalid(String line) {
+        try {
+            new Trip(line);
+            fail("accepted " + line);
+        }
+        catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}